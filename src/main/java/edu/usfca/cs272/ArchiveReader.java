@@ -0,0 +1,401 @@
+package edu.usfca.cs272;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Reads the text file entries of zip and tar archives (including gzip
+ * compressed tar archives) as streams without extracting them to disk.
+ *
+ * @author Isaac Meltsner
+ */
+public class ArchiveReader {
+	/** The size of a tar header and data block */
+	private static final int BLOCK = 512;
+
+	/** The magic and version of a POSIX ustar header, which has a name prefix */
+	private static final byte[] USTAR = ("ustar\0" + "00").getBytes(StandardCharsets.US_ASCII);
+
+	/** Logger used for this class */
+	private static final Logger log = LogManager.getLogger();
+
+	/** Separates the archive path from the entry name in a location */
+	public static final String SEPARATOR = "!/";
+
+	/** Handles a single entry of an archive */
+	@FunctionalInterface
+	public static interface EntryHandler {
+		/**
+		 * Handles a single text file entry of an archive. The input stream is
+		 * already decompressed and must not be closed.
+		 *
+		 * @param location the location of the entry
+		 * @param input the contents of the entry
+		 * @throws IOException if unable to read the entry
+		 */
+		public void accept(String location, InputStream input) throws IOException;
+	}
+
+	/**
+	 * Checks to see if the given path is a supported archive
+	 *
+	 * @param path the path to check
+	 * @return true if path is a zip or tar archive false otherwise
+	 */
+	public static boolean isArchive(Path path) {
+		String lowerCasePath = path.toString().toLowerCase();
+		return lowerCasePath.endsWith(".zip") || isTar(lowerCasePath);
+	}
+
+	/**
+	 * Checks to see if the given lowercase file name is a tar archive
+	 *
+	 * @param name the lowercase name to check
+	 * @return true if the name is a tar archive false otherwise
+	 */
+	private static boolean isTar(String name) {
+		return name.endsWith(".tar") || name.endsWith(".tar.gz") || name.endsWith(".tgz");
+	}
+
+	/**
+	 * Checks to see if the given lowercase file name is gzip compressed
+	 *
+	 * @param name the lowercase name to check
+	 * @return true if the name is gzip compressed false otherwise
+	 */
+	public static boolean isGzip(String name) {
+		return name.endsWith(".gz") || name.endsWith(".tgz");
+	}
+
+	/**
+	 * Returns the location of an entry within an archive
+	 *
+	 * @param archive the path of the archive
+	 * @param entry the name of the entry
+	 * @return the location of the entry
+	 */
+	public static String location(Path archive, String entry) {
+		return archive.toString() + SEPARATOR + entry;
+	}
+
+	/**
+	 * Opens a file for reading, decompressing it if it is gzip compressed
+	 *
+	 * @param path the path of the file
+	 * @return the decompressed contents of the file
+	 * @throws IOException if unable to open the file
+	 */
+	public static InputStream open(Path path) throws IOException {
+		InputStream input = Files.newInputStream(path);
+
+		try {
+			return isGzip(path.toString().toLowerCase()) ? new GZIPInputStream(input, 8192) : input;
+		}
+		catch (IOException e) {
+			input.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads every text file entry of an archive in order, passing each one to the
+	 * handler. Entries that are themselves gzip compressed are decompressed.
+	 *
+	 * @param archive the path of the archive
+	 * @param handler the handler for each text file entry
+	 * @throws IOException if unable to read the archive
+	 *
+	 * @see InvertedIndexProcessor#isTextFile(Path)
+	 */
+	public static void read(Path archive, EntryHandler handler) throws IOException {
+		String name = archive.toString().toLowerCase();
+
+		try (InputStream input = new BufferedInputStream(open(archive))) {
+			if (isTar(name)) {
+				readTar(archive, input, handler);
+			}
+			else {
+				readZip(archive, input, handler);
+			}
+		}
+	}
+
+	/**
+	 * Passes a single entry to the handler if it is a text file
+	 *
+	 * @param archive the path of the archive
+	 * @param entry the name of the entry
+	 * @param input the contents of the entry
+	 * @param handler the handler for each text file entry
+	 * @throws IOException if unable to read the entry
+	 */
+	private static void handle(Path archive, String entry, InputStream input, EntryHandler handler) throws IOException {
+		Path path;
+
+		try {
+			path = Path.of(entry);
+		}
+		catch (InvalidPathException e) {
+			log.debug("Skipping entry {} of archive {} with an invalid name.", entry, archive);
+			return;
+		}
+
+		if (InvertedIndexProcessor.isTextFile(path)) {
+			InputStream content = new Unclosable(input);
+			handler.accept(location(archive, entry), isGzip(entry.toLowerCase()) ? new GZIPInputStream(content) : content);
+		}
+	}
+
+	/**
+	 * Reads the entries of a zip archive
+	 *
+	 * @param archive the path of the archive
+	 * @param input the contents of the archive
+	 * @param handler the handler for each text file entry
+	 * @throws IOException if unable to read the archive
+	 */
+	private static void readZip(Path archive, InputStream input, EntryHandler handler) throws IOException {
+		ZipInputStream zip = new ZipInputStream(input, UTF_8);
+		ZipEntry entry;
+
+		while ((entry = zip.getNextEntry()) != null) {
+			if (!entry.isDirectory()) {
+				handle(archive, entry.getName(), zip, handler);
+			}
+		}
+	}
+
+	/**
+	 * Reads the entries of a tar archive in the ustar, GNU, or pax formats
+	 *
+	 * @param archive the path of the archive
+	 * @param input the contents of the archive
+	 * @param handler the handler for each text file entry
+	 * @throws IOException if unable to read the archive
+	 */
+	private static void readTar(Path archive, InputStream input, EntryHandler handler) throws IOException {
+		byte[] header = new byte[BLOCK];
+		String longName = null;
+
+		while (input.readNBytes(header, 0, BLOCK) == BLOCK && header[0] != 0) {
+			String name = string(header, 0, 100);
+			long size = number(header, 124, 12);
+			char type = (char) header[156];
+
+			// old GNU headers keep other fields where the prefix would be
+			if (Arrays.equals(header, 257, 265, USTAR, 0, USTAR.length)) {
+				String prefix = string(header, 345, 155);
+				name = prefix.isEmpty() ? name : prefix + "/" + name;
+			}
+
+			if (longName != null) {
+				name = longName;
+				longName = null;
+			}
+
+			if (type == 'L' || type == 'x') {
+				String data = new String(input.readNBytes((int) size), StandardCharsets.UTF_8);
+				longName = type == 'L' ? data.replace("\0", "") : paxPath(data);
+			}
+			else {
+				Entry entry = new Entry(input, size);
+
+				if (type == '0' || type == '\0') {
+					handle(archive, name, entry, handler);
+				}
+
+				entry.skipRemaining();
+			}
+
+			// data is padded to a whole number of blocks
+			long padding = (BLOCK - size % BLOCK) % BLOCK;
+			skip(input, padding);
+		}
+	}
+
+	/**
+	 * Finds the path record of a pax extended header
+	 *
+	 * @param data the records of the extended header
+	 * @return the path or {@code null} if not found
+	 */
+	private static String paxPath(String data) {
+		for (String record : data.split("\n")) {
+			int start = record.indexOf(" path=");
+
+			if (start >= 0) {
+				return record.substring(start + 6);
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Reads a null terminated string from a tar header
+	 *
+	 * @param header the header
+	 * @param offset the start of the field
+	 * @param length the length of the field
+	 * @return the string value of the field
+	 */
+	private static String string(byte[] header, int offset, int length) {
+		int end = offset;
+
+		while (end < offset + length && header[end] != 0) {
+			end++;
+		}
+
+		return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Reads an octal or base-256 number from a tar header
+	 *
+	 * @param header the header
+	 * @param offset the start of the field
+	 * @param length the length of the field
+	 * @return the numeric value of the field
+	 */
+	private static long number(byte[] header, int offset, int length) {
+		long value = 0;
+
+		if ((header[offset] & 0x80) != 0) {
+			for (int i = offset + 1; i < offset + length; i++) {
+				value = (value << 8) | (header[i] & 0xFF);
+			}
+
+			return value;
+		}
+
+		for (int i = offset; i < offset + length; i++) {
+			if (header[i] >= '0' && header[i] <= '7') {
+				value = (value << 3) + (header[i] - '0');
+			}
+		}
+
+		return value;
+	}
+
+	/**
+	 * Skips exactly the given number of bytes
+	 *
+	 * @param input the input to skip
+	 * @param bytes the number of bytes to skip
+	 * @throws IOException if the input ends first
+	 */
+	private static void skip(InputStream input, long bytes) throws IOException {
+		while (bytes > 0) {
+			long skipped = input.skip(bytes);
+
+			if (skipped <= 0) {
+				if (input.read() < 0) {
+					throw new EOFException("Truncated tar archive");
+				}
+
+				skipped = 1;
+			}
+
+			bytes -= skipped;
+		}
+	}
+
+	/** Limits reading to the data of a single tar entry */
+	private static class Entry extends FilterInputStream {
+		/** The number of bytes left in the entry */
+		private long remaining;
+
+		/**
+		 * Initializes the entry
+		 *
+		 * @param input the contents of the archive
+		 * @param size the size of the entry
+		 */
+		private Entry(InputStream input, long size) {
+			super(input);
+			this.remaining = size;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+
+			int read = super.read();
+			remaining -= read >= 0 ? 1 : 0;
+			return read;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+
+			int read = super.read(buffer, offset, (int) Math.min(length, remaining));
+			remaining -= read > 0 ? read : 0;
+			return read;
+		}
+
+		@Override
+		public long skip(long bytes) throws IOException {
+			long skipped = super.skip(Math.min(bytes, remaining));
+			remaining -= skipped;
+			return skipped;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return (int) Math.min(super.available(), remaining);
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		/**
+		 * Skips any data of the entry that was not read
+		 *
+		 * @throws IOException if the archive ends first
+		 */
+		private void skipRemaining() throws IOException {
+			ArchiveReader.skip(in, remaining);
+			remaining = 0;
+		}
+	}
+
+	/** Keeps a handler from closing the stream of the whole archive */
+	private static class Unclosable extends FilterInputStream {
+		/**
+		 * Initializes the wrapper
+		 *
+		 * @param input the stream to wrap
+		 */
+		private Unclosable(InputStream input) {
+			super(input);
+		}
+
+		@Override
+		public void close() {
+			// the archive stream is closed by the archive reader
+		}
+	}
+}
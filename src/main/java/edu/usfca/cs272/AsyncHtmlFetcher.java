@@ -0,0 +1,315 @@
+package edu.usfca.cs272;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodySubscriber;
+import java.net.http.HttpResponse.BodySubscribers;
+import java.net.http.HttpResponse.ResponseInfo;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An alternative to {@link HtmlFetcher} that fetches pages asynchronously with
+ * an {@link HttpClient}, so that many requests can wait for a response at once
+ * without a thread for each of them. HTTP/2 is used when the server supports
+ * it, which lets requests to the same host share a single connection.
+ *
+ * @see HtmlFetcher#fetch(URL, int)
+ *
+ * @author Isaac Meltsner
+ */
+public class AsyncHtmlFetcher {
+	/** Default number of threads used to handle responses */
+	public static final int THREADS = 2;
+
+	/** The client used to send requests */
+	private final HttpClient client;
+
+	/** The threads used by the client to handle responses */
+	private final WorkQueue executor;
+
+	/**
+	 * Initializes the fetcher with the default number of threads
+	 */
+	public AsyncHtmlFetcher() {
+		this(THREADS);
+	}
+
+	/**
+	 * Initializes the fetcher. The connect timeout of
+	 * {@link HttpsFetcher#setTimeouts(int, int)} and the limits of
+	 * {@link HtmlFetcher#setLimits(long, long)} are used as well.
+	 *
+	 * @param threads the number of threads used to handle responses
+	 */
+	public AsyncHtmlFetcher(int threads) {
+		this.executor = new WorkQueue(Math.max(1, threads));
+
+		HttpClient.Builder builder = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_2)
+				.followRedirects(HttpClient.Redirect.NEVER)
+				.executor(executor::execute);
+
+		if (HttpsFetcher.getConnectTimeout() > 0) {
+			builder.connectTimeout(Duration.ofMillis(HttpsFetcher.getConnectTimeout()));
+		}
+
+		this.client = builder.build();
+	}
+
+	/**
+	 * Fetches the resource at the URL asynchronously. The future completes with
+	 * the html if the status code is 200 and the content type is HTML, following
+	 * redirects of HTML responses if the number of redirects is greater than 0.
+	 * Otherwise, the future completes with {@code null}.
+	 *
+	 * @param url the url to fetch
+	 * @param redirects the number of times to follow redirects
+	 * @return the future html or {@code null} if unable to fetch the resource or
+	 *   the resource is not html
+	 *
+	 * @see HtmlFetcher#fetch(URL, int)
+	 */
+	public CompletableFuture<String> fetch(URL url, int redirects) {
+		return fetch(url, redirects, null)
+				.thenApply(page -> page != null ? page.getHtml() : null)
+				.exceptionally(e -> null);
+	}
+
+	/**
+	 * Fetches the resource at the URL asynchronously like
+	 * {@link #fetch(URL, int)}, but asks the server to only send the page if it
+	 * changed since it was cached. If the fetch failed in a way that may succeed
+	 * when it is tried again later, such as a timeout or an overloaded server,
+	 * the future completes exceptionally instead.
+	 *
+	 * @param url the url to fetch
+	 * @param redirects the number of times to follow redirects
+	 * @param cached the cached page or {@code null} if the page is not cached
+	 * @return the future downloaded page, the cached page if it has not changed,
+	 *   or {@code null} if the resource is not html or will never be fetched
+	 *
+	 * @see HtmlFetcher#fetchPage(URL, int, FetchCache.Page, ConnectionPool)
+	 * @see HtmlFetcher#isTransient(Throwable)
+	 */
+	public CompletableFuture<FetchCache.Page> fetch(URL url, int redirects, FetchCache.Page cached) {
+		HttpRequest.Builder request;
+
+		try {
+			request = HttpRequest.newBuilder(url.toURI()).GET();
+		}
+		catch (URISyntaxException | IllegalArgumentException e) {
+			return CompletableFuture.completedFuture(null);
+		}
+
+		if (cached != null) {
+			cached.getConditions().forEach(request::header);
+		}
+
+		request.header("Accept-Encoding", HtmlFetcher.ACCEPT_ENCODING);
+
+		// the request timeout only lasts until the headers arrive
+		long deadline = HtmlFetcher.getDeadline();
+		long start = System.nanoTime();
+
+		if (deadline > 0) {
+			request.timeout(Duration.ofMillis(deadline));
+		}
+
+		return client.sendAsync(request.build(), info -> subscribe(info, deadline, start))
+				.thenCompose(response -> handle(url, redirects, cached, response))
+				.handle((page, error) -> {
+					if (error != null && HtmlFetcher.isTransient(error)) {
+						throw error instanceof CompletionException completion ? completion : new CompletionException(error);
+					}
+
+					return page;
+				});
+	}
+
+	/**
+	 * Handles a response, following a redirect if needed
+	 *
+	 * @param url the url that was fetched
+	 * @param redirects the number of times to follow redirects
+	 * @param cached the cached page or {@code null} if the page is not cached
+	 * @param response the response
+	 * @return the future page or {@code null}
+	 */
+	private CompletableFuture<FetchCache.Page> handle(URL url, int redirects, FetchCache.Page cached, HttpResponse<String> response) {
+		int statusCode = response.statusCode();
+		HtmlFetcher.countStatus(statusCode);
+
+		if (HtmlFetcher.isTransient(statusCode)) {
+			return CompletableFuture.failedFuture(new IOException("Server responded with status " + statusCode + ": " + url));
+		}
+
+		if (statusCode == 304 && cached != null) {
+			return CompletableFuture.completedFuture(cached);
+		}
+
+		if (statusCode == 200 && response.body() != null) {
+			String etag = response.headers().firstValue("ETag").orElse(null);
+			String modified = response.headers().firstValue("Last-Modified").orElse(null);
+			return CompletableFuture.completedFuture(new FetchCache.Page(etag, modified, response.body(), List.of(), new byte[0], true));
+		}
+
+		String location = response.headers().firstValue("Location").orElse(null);
+		boolean redirect = statusCode >= 300 && statusCode <= 399 && HtmlFetcher.isHtml(response.headers().map());
+
+		if (redirect && location != null && redirects > 0) {
+			try {
+				return fetch(new URL(url, location), redirects - 1, cached);
+			}
+			catch (MalformedURLException e) {
+				return CompletableFuture.completedFuture(null);
+			}
+		}
+
+		return CompletableFuture.completedFuture(null);
+	}
+
+	/**
+	 * Chooses how to read the body of a response. Only the body of a successful
+	 * HTML response is kept, which is decoded the same way as the socket fetcher
+	 * and limited to the maximum body size and the rest of the deadline.
+	 *
+	 * @param info the status code and headers of the response
+	 * @param deadline the time in milliseconds the request may take in total, or 0
+	 *   for no limit
+	 * @param start the time in nanoseconds the request was sent
+	 * @return the subscriber for the body
+	 *
+	 * @see HtmlFetcher#decode(byte[], String)
+	 */
+	private static BodySubscriber<String> subscribe(ResponseInfo info, long deadline, long start) {
+		if (info.statusCode() == 200 && HtmlFetcher.isHtml(info.headers().map())) {
+			String encoding = info.headers().firstValue("Content-Encoding").orElse(null);
+			long remaining = deadline > 0 ? Math.max(1, deadline - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)) : 0;
+			return new LimitedSubscriber(encoding, HtmlFetcher.getMaxBody(), remaining);
+		}
+
+		return BodySubscribers.replacing(null);
+	}
+
+	/**
+	 * Stops the threads used to handle responses after the pending responses are
+	 * handled. The fetcher may not be used afterwards.
+	 */
+	public void close() {
+		executor.join();
+	}
+
+	/**
+	 * Collects the body of a response and decodes it once it is complete, or
+	 * cancels the response if the body is too large or takes too long
+	 */
+	private static class LimitedSubscriber implements BodySubscriber<String> {
+		/** The "Content-Encoding" header or {@code null} if there was none */
+		private final String encoding;
+
+		/** The maximum number of bytes of the body, or 0 for no limit */
+		private final long maxBody;
+
+		/** The body received so far */
+		private final ByteArrayOutputStream bytes;
+
+		/** The decoded body, or null if the body could not be decoded */
+		private final CompletableFuture<String> body;
+
+		/** The subscription to the body */
+		private volatile Flow.Subscription subscription;
+
+		/**
+		 * Initializes the subscriber
+		 *
+		 * @param encoding the "Content-Encoding" header or {@code null} if there was none
+		 * @param maxBody the maximum number of bytes of the body, or 0 for no limit
+		 * @param deadline the time in milliseconds to receive the body, or 0 for no limit
+		 */
+		private LimitedSubscriber(String encoding, long maxBody, long deadline) {
+			this.encoding = encoding;
+			this.maxBody = maxBody;
+			this.bytes = new ByteArrayOutputStream();
+			this.body = new CompletableFuture<>();
+
+			if (deadline > 0) {
+				body.orTimeout(deadline, TimeUnit.MILLISECONDS);
+			}
+
+			// stops the rest of the body from being sent once it is not needed
+			body.whenComplete((html, error) -> {
+				Flow.Subscription subscription = this.subscription;
+
+				if (error != null && subscription != null) {
+					subscription.cancel();
+				}
+			});
+		}
+
+		@Override
+		public CompletionStage<String> getBody() {
+			return body;
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+
+			if (body.isDone()) {
+				subscription.cancel();
+			}
+			else {
+				subscription.request(Long.MAX_VALUE);
+			}
+		}
+
+		@Override
+		public void onNext(List<ByteBuffer> items) {
+			for (ByteBuffer item : items) {
+				if (body.isDone()) {
+					return;
+				}
+
+				byte[] buffer = new byte[item.remaining()];
+				item.get(buffer);
+				bytes.writeBytes(buffer);
+
+				if (maxBody > 0 && bytes.size() > maxBody) {
+					body.completeExceptionally(new HtmlFetcher.ContentTooLargeException(maxBody));
+				}
+			}
+		}
+
+		@Override
+		public void onError(Throwable error) {
+			body.completeExceptionally(error);
+		}
+
+		@Override
+		public void onComplete() {
+			try {
+				body.complete(HtmlFetcher.decode(bytes.toByteArray(), encoding));
+			}
+			catch (HtmlFetcher.ContentTooLargeException e) {
+				// reported the same way as a body that was too large before decoding
+				body.completeExceptionally(e);
+			}
+			catch (IOException e) {
+				body.complete(null);
+			}
+		}
+	}
+}
@@ -0,0 +1,279 @@
+package edu.usfca.cs272;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Keeps HTTP/1.1 connections open after a response so later requests to the
+ * same host can reuse them instead of opening a new socket (and repeating the
+ * TLS handshake for HTTPS). Connections that stay idle too long are closed.
+ * New connections look up their host in a cache of addresses shared by the
+ * pool.
+ *
+ * @see HttpsFetcher#openConnection(URL, DnsCache)
+ *
+ * @author Isaac Meltsner
+ */
+public class ConnectionPool {
+	/** Default time in milliseconds a connection may stay idle in the pool */
+	public static final long KEEP_ALIVE = 5000;
+
+	/** Default maximum number of idle connections kept for each host */
+	public static final int MAX_IDLE = 8;
+
+	/** The idle connections by host, with the most recently used last */
+	private final Map<String, Deque<Connection>> idle;
+
+	/** Time in milliseconds a connection may stay idle in the pool */
+	private final long keepAlive;
+
+	/** Maximum number of idle connections kept for each host */
+	private final int maxIdle;
+
+	/** The addresses of the hosts connected to */
+	private final DnsCache dns;
+
+	/** Logger used for this class */
+	private static final Logger log = LogManager.getLogger();
+
+	/**
+	 * Initializes a pool with the default limits
+	 */
+	public ConnectionPool() {
+		this(MAX_IDLE, KEEP_ALIVE, new DnsCache());
+	}
+
+	/**
+	 * Initializes a pool
+	 *
+	 * @param maxIdle the maximum number of idle connections kept for each host
+	 * @param keepAlive the time in milliseconds a connection may stay idle
+	 * @param dns the cache of host addresses used for new connections
+	 */
+	public ConnectionPool(int maxIdle, long keepAlive, DnsCache dns) {
+		this.idle = new HashMap<>();
+		this.maxIdle = Math.max(1, maxIdle);
+		this.keepAlive = keepAlive;
+		this.dns = dns;
+	}
+
+	/**
+	 * Returns an idle connection to the host of the url if there is one, or opens
+	 * a new connection otherwise
+	 *
+	 * @param url the url to connect to
+	 * @return a connection to the host of the url
+	 * @throws IOException if unable to open a new connection
+	 */
+	public Connection borrow(URL url) throws IOException {
+		String host = host(url);
+		long now = System.currentTimeMillis();
+
+		synchronized (idle) {
+			Deque<Connection> connections = idle.get(host);
+
+			while (connections != null && !connections.isEmpty()) {
+				Connection connection = connections.pollLast();
+
+				if (now - connection.lastUsed < keepAlive && !connection.socket.isClosed()) {
+					return connection;
+				}
+
+				connection.close();
+			}
+		}
+
+		return connect(url);
+	}
+
+	/**
+	 * Opens a new connection to the host of the url without checking for an idle
+	 * one, looking up the host in the cache of the pool
+	 *
+	 * @param url the url to connect to
+	 * @return the new connection
+	 * @throws IOException if unable to open the connection
+	 */
+	public Connection connect(URL url) throws IOException {
+		return new Connection(host(url), HttpsFetcher.openConnection(url, dns));
+	}
+
+	/**
+	 * Returns a connection to the pool after its response was read completely, or
+	 * closes it if it cannot be used again
+	 *
+	 * @param connection the connection to return
+	 * @param reusable whether the connection can be used for another request
+	 */
+	public void release(Connection connection, boolean reusable) {
+		if (!reusable) {
+			connection.close();
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+		connection.lastUsed = now;
+		connection.reused = true;
+
+		synchronized (idle) {
+			evict(now);
+
+			Deque<Connection> connections = idle.computeIfAbsent(connection.host, host -> new ArrayDeque<>());
+
+			if (connections.size() >= maxIdle) {
+				connections.pollFirst().close();
+			}
+
+			connections.addLast(connection);
+		}
+	}
+
+	/**
+	 * Closes every idle connection. The pool may still be used afterwards.
+	 */
+	public void close() {
+		synchronized (idle) {
+			for (Deque<Connection> connections : idle.values()) {
+				connections.forEach(Connection::close);
+			}
+
+			idle.clear();
+		}
+	}
+
+	/**
+	 * Closes the idle connections of every host that have been idle too long.
+	 * Must be called while holding the lock on the idle connections.
+	 *
+	 * @param now the current time in milliseconds
+	 */
+	private void evict(long now) {
+		Iterator<Deque<Connection>> hosts = idle.values().iterator();
+
+		while (hosts.hasNext()) {
+			Deque<Connection> connections = hosts.next();
+
+			// the least recently used connections are first
+			while (!connections.isEmpty() && now - connections.peekFirst().lastUsed >= keepAlive) {
+				connections.pollFirst().close();
+			}
+
+			if (connections.isEmpty()) {
+				hosts.remove();
+			}
+		}
+	}
+
+	/**
+	 * Opens a new connection that is not part of any pool yet
+	 *
+	 * @param url the url to connect to
+	 * @return the new connection
+	 * @throws IOException if unable to open the connection
+	 */
+	public static Connection open(URL url) throws IOException {
+		return new Connection(host(url), HttpsFetcher.openConnection(url));
+	}
+
+	/**
+	 * Returns the protocol, host, and port of a url, which connections can only
+	 * be shared between if they are the same
+	 *
+	 * @param url the url
+	 * @return the key of the host
+	 */
+	private static String host(URL url) {
+		int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+		return url.getProtocol().toLowerCase() + "://" + url.getHost().toLowerCase() + ":" + port;
+	}
+
+	/** A socket connection along with the streams used to read and write it */
+	public static class Connection {
+		/** The protocol, host, and port of the connection */
+		private final String host;
+
+		/** The socket */
+		private final Socket socket;
+
+		/** The buffered input of the socket */
+		private final InputStream input;
+
+		/** The writer for requests */
+		private final PrintWriter writer;
+
+		/** The time in milliseconds the connection was last returned to the pool */
+		private long lastUsed;
+
+		/** Whether the connection was used for an earlier request */
+		private boolean reused;
+
+		/**
+		 * Initializes the connection
+		 *
+		 * @param host the protocol, host, and port of the connection
+		 * @param socket the socket
+		 * @throws IOException if unable to get the streams of the socket
+		 */
+		private Connection(String host, Socket socket) throws IOException {
+			this.host = host;
+			this.socket = socket;
+			this.input = new BufferedInputStream(socket.getInputStream());
+			this.writer = new PrintWriter(socket.getOutputStream());
+			this.lastUsed = System.currentTimeMillis();
+			this.reused = false;
+		}
+
+		/**
+		 * Returns the buffered input of the socket
+		 *
+		 * @return the input
+		 */
+		public InputStream getInput() {
+			return input;
+		}
+
+		/**
+		 * Returns the writer for requests
+		 *
+		 * @return the writer
+		 */
+		public PrintWriter getWriter() {
+			return writer;
+		}
+
+		/**
+		 * Returns whether the connection was used for an earlier request, in which
+		 * case the server may have closed it already
+		 *
+		 * @return true if the connection was used before
+		 */
+		public boolean isReused() {
+			return reused;
+		}
+
+		/**
+		 * Closes the socket
+		 */
+		public void close() {
+			try {
+				socket.close();
+			}
+			catch (IOException e) {
+				log.catching(Level.DEBUG, e);
+			}
+		}
+	}
+}
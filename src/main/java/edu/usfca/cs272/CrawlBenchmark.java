@@ -0,0 +1,139 @@
+package edu.usfca.cs272;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Measures how fast the crawler crawls a generated {@link TestSite} hosted in
+ * the same process, so changes to the crawler can be compared without using
+ * the network. The site is crawled a few times with the same settings after
+ * warming up, and the pages per second of each run are reported along with
+ * their median. See the README for the arguments.
+ *
+ * @author Isaac Meltsner
+ */
+public class CrawlBenchmark {
+	/** Default number of measured runs */
+	public static final int RUNS = 3;
+
+	/** Default number of runs before the measured ones, while the code warms up */
+	public static final int WARMUPS = 1;
+
+	/**
+	 * Starts a test site and crawls it based on the provided command-line
+	 * arguments
+	 *
+	 * @param args flag/value pairs used to start the benchmark
+	 */
+	public static void main(String[] args) {
+		ArgumentParser parser = new ArgumentParser(args);
+		int pages = parser.getInteger("-pages", TestSite.PAGES);
+		TestSite site = new TestSite(parser.getInteger("-port", 0), pages);
+
+		site.setPageSize(parser.getInteger("-words", TestSite.WORDS), parser.getInteger("-links", TestSite.LINKS));
+		site.setResponses(parser.getInteger("-latency", 0), parser.getInteger("-errors", 0) / 100.0,
+				parser.getInteger("-redirects", 0) / 100.0, parser.hasFlag("-gzip"));
+		site.setSeed(parser.getInteger("-seed", 0));
+
+		try {
+			site.start();
+		}
+		catch (Exception e) {
+			System.out.println("Test site unable to start");
+			return;
+		}
+
+		try {
+			int runs = Math.max(1, parser.getInteger("-runs", RUNS));
+			int warmups = Math.max(0, parser.getInteger("-warmups", WARMUPS));
+			List<Double> rates = new ArrayList<>();
+			CrawlMetrics metrics = null;
+
+			System.out.println("Crawling " + pages + " pages at " + site.getUrl());
+
+			for (int run = 1 - warmups; run <= runs; run++) {
+				metrics = crawl(site.getUrl(), pages, parser);
+				String name = run > 0 ? "Run " + run : "Warmup " + (run + warmups);
+
+				System.out.printf("%s: %d pages (%d indexed) in %.2f s, %.1f pages/s, %.1f KB/s%n", name, metrics.getCrawled(),
+						metrics.getIndexed(), metrics.getSeconds(), metrics.getPagesPerSecond(), metrics.getBytesPerSecond() / 1024);
+
+				if (run > 0) {
+					rates.add(metrics.getPagesPerSecond());
+				}
+			}
+
+			Collections.sort(rates);
+			System.out.printf("Median %.1f pages/s, best %.1f pages/s over %d runs%n", rates.get(rates.size() / 2),
+					rates.get(rates.size() - 1), rates.size());
+
+			if (parser.hasFlag("-metrics")) {
+				Path metricsOutput = parser.getPath("-metrics", Path.of("metrics.json"));
+
+				try {
+					metrics.write(metricsOutput);
+				}
+				catch (IOException e) {
+					System.out.println("Unable to write to file at path: " + metricsOutput.toString());
+				}
+			}
+		}
+		catch (MalformedURLException e) {
+			System.out.println("Invalid url");
+		}
+		catch (IOException e) {
+			System.out.println("Unable to use cache at path: " + parser.getPath("-cache", Path.of("cache")));
+		}
+		finally {
+			try {
+				site.stop();
+			}
+			catch (Exception e) {
+				System.out.println("Test site unable to stop");
+			}
+		}
+	}
+
+	/**
+	 * Crawls the test site once into a new index, configuring the crawler the
+	 * same way as the {@link Driver}
+	 *
+	 * @param seed the url of the first page of the site
+	 * @param pages the number of pages to crawl
+	 * @param parser the command-line arguments
+	 * @return the metrics of the crawl
+	 * @throws MalformedURLException if the url is invalid
+	 * @throws IOException if unable to open the cache
+	 */
+	private static CrawlMetrics crawl(String seed, int pages, ArgumentParser parser) throws IOException {
+		ThreadSafeInvertedIndex index = new ThreadSafeInvertedIndex();
+		WorkQueue queue = new WorkQueue(Math.max(1, parser.getInteger("-threads", WorkQueue.DEFAULT)));
+		WebCrawler crawler = new WebCrawler(seed, pages, queue, index);
+		crawler.setReporting(0, null);
+		Driver.configure(crawler, parser);
+
+		if (parser.hasFlag("-duplicates")) {
+			crawler.setDuplicateDetector(new DuplicateDetector());
+		}
+
+		AsyncHtmlFetcher async = parser.hasFlag("-async") ? new AsyncHtmlFetcher() : null;
+		crawler.setAsync(async);
+
+		try {
+			crawler.crawl();
+		}
+		finally {
+			if (async != null) {
+				async.close();
+			}
+
+			queue.join();
+		}
+
+		return crawler.getMetrics();
+	}
+}
@@ -0,0 +1,133 @@
+package edu.usfca.cs272;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Saves the progress of a web crawl to a local file so that a crawl that was
+ * stopped can continue where it left off. A checkpoint holds the frontier of
+ * the crawl together with a snapshot of the index and of the pages found to
+ * be duplicates, taken while no pages are being crawled so that every finished
+ * page is in the index and every page that is not finished is still waiting in
+ * the frontier.
+ *
+ * @see CrawlFrontier#write(DataOutputStream)
+ *
+ * @author Isaac Meltsner
+ */
+public class CrawlCheckpoint {
+	/** Identifies a checkpoint file and its format version */
+	private static final int MAGIC = 0x43524c32;
+
+	/** The path of the checkpoint file */
+	private final Path path;
+
+	/** Logger used for this class */
+	private static final Logger log = LogManager.getLogger();
+
+	/**
+	 * Initializes a checkpoint
+	 *
+	 * @param path the path of the checkpoint file
+	 */
+	public CrawlCheckpoint(Path path) {
+		this.path = path;
+	}
+
+	/**
+	 * Saves the frontier, the index, and the duplicates, replacing the previous
+	 * checkpoint only once the new one has been completely written. Must only be
+	 * called while no pages are being crawled.
+	 *
+	 * @param frontier the frontier of the crawl
+	 * @param index the index of the crawl
+	 * @param duplicates the duplicate detector of the crawl, or null if there is
+	 *   none
+	 * @throws IOException if an IO error occurs
+	 */
+	public void save(CrawlFrontier frontier, InvertedIndex index, DuplicateDetector duplicates) throws IOException {
+		Path parent = path.toAbsolutePath().getParent();
+		Path temp = Files.createTempFile(parent, "checkpoint", ".tmp");
+
+		try {
+			try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+				output.writeInt(MAGIC);
+				frontier.write(output);
+				IncrementalIndexProcessor.write(index, output);
+				output.writeBoolean(duplicates != null);
+
+				if (duplicates != null) {
+					duplicates.write(output);
+				}
+			}
+
+			Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+		}
+		finally {
+			Files.deleteIfExists(temp);
+		}
+
+		log.info("Checkpoint saved: {} urls, {} locations.", frontier.size(), index.numCounts());
+	}
+
+	/**
+	 * Restores the frontier, the index, and the duplicates from the last
+	 * checkpoint. Saved duplicates are ignored if there is no detector.
+	 *
+	 * @param maxLinks the maximum number of urls to crawl
+	 * @param index the index to add the saved index to
+	 * @param duplicates the duplicate detector to add the saved duplicates to, or
+	 *   null if there is none
+	 * @return the saved frontier, or null if there is no checkpoint
+	 * @throws IOException if the checkpoint is malformed or an IO error occurs
+	 */
+	public CrawlFrontier restore(int maxLinks, InvertedIndex index, DuplicateDetector duplicates) throws IOException {
+		if (!Files.isRegularFile(path)) {
+			return null;
+		}
+
+		CrawlFrontier frontier;
+		InvertedIndex saved = new InvertedIndex();
+		DuplicateDetector detector = new DuplicateDetector();
+
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			if (input.readInt() != MAGIC) {
+				throw new IOException("Unrecognized checkpoint format: " + path);
+			}
+
+			frontier = CrawlFrontier.read(input, maxLinks);
+			IncrementalIndexProcessor.read(input, saved);
+
+			if (input.readBoolean()) {
+				detector.read(input);
+			}
+		}
+
+		index.addAll(saved);
+
+		if (duplicates != null) {
+			duplicates.addAll(detector);
+		}
+
+		log.info("Checkpoint restored: {} urls, {} locations.", frontier.size(), index.numCounts());
+		return frontier;
+	}
+
+	/**
+	 * Returns the path of the checkpoint file
+	 *
+	 * @return the path
+	 */
+	public Path getPath() {
+		return path;
+	}
+}
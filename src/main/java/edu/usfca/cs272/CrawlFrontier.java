@@ -0,0 +1,869 @@
+package edu.usfca.cs272;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps track of the urls of a crawl: the urls that were already seen, the urls
+ * waiting to be crawled, and how much of the crawl budget is left. Urls are
+ * remembered by a 64-bit hash of their normalized text instead of as
+ * {@link URL} objects, whose {@code equals} and {@code hashCode} methods may
+ * resolve the host name. The seen urls are either kept in an exact set of
+ * hashes, or in a much smaller Bloom filter that occasionally mistakes a new
+ * url for one already seen.
+ *
+ * <p>
+ * Urls are claimed without a shared lock, so many threads can add the links of
+ * their pages at once. The urls waiting to be crawled are queued by host, and
+ * the hosts take turns, so that a page full of links to one host does not keep
+ * the other hosts waiting. Each host may also be limited to a number of urls
+ * fetched at once and a minimum delay between requests, and a host that has to
+ * wait is skipped until its turn comes up again.
+ *
+ * <p>
+ * By default, urls are claimed from the crawl budget as soon as they are found.
+ * With a {@link Priority}, the crawl goes breadth first one depth at a time
+ * instead: the urls found at the next depth are only claimed once every page at
+ * the current depth is finished, starting with the highest scores. The pages
+ * crawled for a budget are then the same on every run, no matter the order the
+ * pages of a depth finish in.
+ *
+ * @see LinkFinder#cleanUri(java.net.URI)
+ *
+ * @author Isaac Meltsner
+ */
+public class CrawlFrontier {
+	/** The maximum number of urls to crawl */
+	private final int maxLinks;
+
+	/** The number of urls claimed so far */
+	private final AtomicInteger claimed;
+
+	/** The hashes of the urls seen so far */
+	private final Seen seen;
+
+	/** The hosts of the crawl by protocol, name, and port, guarded by itself */
+	private final Map<String, Host> hosts;
+
+	/** The hosts with urls waiting, in the order they take turns */
+	private final Queue<Host> turns;
+
+	/** The number of claimed urls that are not finished yet, guarded by the hosts */
+	private int pending;
+
+	/** The maximum number of urls fetched at once from each host */
+	private int maxConnections;
+
+	/** The minimum time in nanoseconds between requests to each host */
+	private long delay;
+
+	/** How urls are scored, or null if urls are claimed as soon as they are found */
+	private Priority priority;
+
+	/** The urls found for the next depth that are not claimed yet by hash, guarded by the hosts */
+	private final Map<Long, Candidate> staged;
+
+	/** The depth of the urls claimed last, guarded by the hosts */
+	private int depth;
+
+	/**
+	 * Initializes a frontier that remembers the urls seen in an exact set
+	 *
+	 * @param maxLinks the maximum number of urls to crawl
+	 */
+	public CrawlFrontier(int maxLinks) {
+		this(maxLinks, new SeenSet());
+	}
+
+	/**
+	 * Initializes a frontier that remembers the urls seen in a Bloom filter sized
+	 * for the maximum number of urls
+	 *
+	 * @param maxLinks the maximum number of urls to crawl
+	 * @param falsePositives the chance a new url is mistaken for one already seen
+	 */
+	public CrawlFrontier(int maxLinks, double falsePositives) {
+		this(maxLinks, new BloomFilter(Math.max(1, maxLinks), falsePositives));
+	}
+
+	/**
+	 * Initializes a frontier
+	 *
+	 * @param maxLinks the maximum number of urls to crawl
+	 * @param seen the hashes of the urls seen so far
+	 */
+	private CrawlFrontier(int maxLinks, Seen seen) {
+		this.maxLinks = Math.max(1, maxLinks);
+		this.claimed = new AtomicInteger();
+		this.seen = seen;
+		this.hosts = new HashMap<>();
+		this.turns = new ArrayDeque<>();
+		this.pending = 0;
+		this.maxConnections = Integer.MAX_VALUE;
+		this.delay = 0;
+		this.priority = null;
+		this.staged = new HashMap<>();
+		this.depth = -1;
+	}
+
+	/**
+	 * Limits how often each host is crawled
+	 *
+	 * @param maxConnections the maximum number of urls fetched at once from each
+	 *   host, or 0 for no limit
+	 * @param delay the minimum time in milliseconds between requests to each host
+	 */
+	public void setPoliteness(int maxConnections, long delay) {
+		synchronized (hosts) {
+			this.maxConnections = maxConnections > 0 ? maxConnections : Integer.MAX_VALUE;
+			this.delay = TimeUnit.MILLISECONDS.toNanos(Math.max(0, delay));
+		}
+	}
+
+	/**
+	 * Sets how the urls found at each depth are scored. Must be called before
+	 * the crawl starts.
+	 *
+	 * @param priority how urls are scored, or null to claim urls as soon as they
+	 *   are found
+	 */
+	public void setPriority(Priority priority) {
+		synchronized (hosts) {
+			this.priority = priority;
+		}
+	}
+
+	/**
+	 * Adds a url to be crawled if it was not seen before and the crawl budget is
+	 * not used up yet. With a priority, the url waits for the next depth instead,
+	 * and counts as a link to it if it is already waiting. Those urls are only
+	 * remembered as seen once they are claimed, so the urls seen never outnumber
+	 * the crawl budget.
+	 *
+	 * @param url the url to add
+	 * @return true if the url was added
+	 */
+	public boolean add(URL url) {
+		if (claimed.get() >= maxLinks) {
+			return false;
+		}
+
+		long hash = hash(url.toString());
+
+		if (priority != null) {
+			synchronized (hosts) {
+				Candidate candidate = staged.get(hash);
+
+				if (candidate != null) {
+					candidate.links++;
+					return false;
+				}
+
+				if (seen.contains(hash)) {
+					return false;
+				}
+
+				staged.put(hash, new Candidate(url));
+				return true;
+			}
+		}
+
+		if (!seen.add(hash) || !claim()) {
+			return false;
+		}
+
+		synchronized (hosts) {
+			pending++;
+			enqueue(url);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Claims a url from the crawl budget
+	 *
+	 * @return true if the budget was not used up yet
+	 */
+	private boolean claim() {
+		int count;
+
+		do {
+			count = claimed.get();
+
+			if (count >= maxLinks) {
+				return false;
+			}
+		} while (!claimed.compareAndSet(count, count + 1));
+
+		return true;
+	}
+
+	/**
+	 * Claims the urls found for the next depth, starting with the highest scores
+	 * and then in order of their text, until the budget is used up, and marks
+	 * them as seen. The rest are dropped. Must only be called while no url is
+	 * pending.
+	 */
+	private void open() {
+		if (staged.isEmpty()) {
+			return;
+		}
+
+		List<Candidate> level = new ArrayList<>(staged.values());
+		staged.clear();
+		depth++;
+
+		Priority scorer = priority != null ? priority : Priority.DEPTH;
+
+		for (Candidate candidate : level) {
+			candidate.score = scorer.score(candidate.url, depth, candidate.links);
+		}
+
+		level.sort(Comparator.comparingDouble((Candidate candidate) -> -candidate.score)
+				.thenComparing(candidate -> candidate.text));
+
+		for (Candidate candidate : level) {
+			if (!claim()) {
+				break;
+			}
+
+			seen.add(hash(candidate.text));
+			pending++;
+			enqueue(candidate.url);
+		}
+	}
+
+	/**
+	 * Queues a url behind the other urls waiting for the same host
+	 *
+	 * @param url the url to queue
+	 */
+	private void enqueue(URL url) {
+		Host host = hosts.computeIfAbsent(host(url), key -> new Host());
+
+		if (host.urls.isEmpty()) {
+			turns.add(host);
+		}
+
+		host.urls.add(url);
+	}
+
+	/**
+	 * Removes the next url to crawl from the first host whose turn it is that is
+	 * allowed to be crawled right now. Each url that is removed must be marked as
+	 * fetched once its host is no longer needed, and as finished once its page is
+	 * indexed.
+	 *
+	 * @return the next url, or null if no url may be crawled right now
+	 *
+	 * @see #fetched(URL)
+	 * @see #finished(URL)
+	 * @see #delay()
+	 */
+	public URL poll() {
+		synchronized (hosts) {
+			if (pending <= 0) {
+				open();
+			}
+
+			long now = System.nanoTime();
+
+			for (int i = turns.size(); i > 0; i--) {
+				Host host = turns.remove();
+
+				if (host.active < maxConnections && now - host.next >= 0) {
+					URL url = host.urls.remove();
+					host.active++;
+					host.next = now + delay;
+
+					if (!host.urls.isEmpty()) {
+						turns.add(host);
+					}
+
+					return url;
+				}
+
+				turns.add(host);
+			}
+
+			return null;
+		}
+	}
+
+	/**
+	 * Returns how long until a host that is waiting for its delay may be crawled
+	 * again. Hosts that are waiting for one of their urls to be fetched are not
+	 * counted, since they may be crawled again once it is.
+	 *
+	 * @return the time in milliseconds until a url may be removed, or 0 if there
+	 *   is no url waiting for the delay of its host
+	 */
+	public long delay() {
+		synchronized (hosts) {
+			long now = System.nanoTime();
+			long wait = Long.MAX_VALUE;
+
+			for (Host host : turns) {
+				if (host.active < maxConnections) {
+					wait = Math.min(wait, host.next - now);
+				}
+			}
+
+			return wait > 0 && wait != Long.MAX_VALUE ? TimeUnit.NANOSECONDS.toMillis(wait) + 1 : 0;
+		}
+	}
+
+	/**
+	 * Marks a url that was removed from the frontier as fetched, so that its
+	 * host may be crawled again even while the page still waits to be indexed
+	 *
+	 * @param url the url that was fetched
+	 */
+	public void fetched(URL url) {
+		synchronized (hosts) {
+			Host host = hosts.get(host(url));
+
+			if (host != null) {
+				host.active--;
+			}
+		}
+	}
+
+	/**
+	 * Marks a url that was removed from the frontier as crawled, once its page
+	 * is indexed or dropped
+	 *
+	 * @param url the url that was crawled
+	 */
+	public void finished(URL url) {
+		synchronized (hosts) {
+			pending--;
+
+			if (pending <= 0) {
+				open();
+			}
+
+			if (pending <= 0) {
+				hosts.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Waits until every url added to the frontier is finished
+	 *
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void await() throws InterruptedException {
+		synchronized (hosts) {
+			while (pending > 0) {
+				hosts.wait();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of urls added to the frontier
+	 *
+	 * @return the number of urls claimed from the crawl budget
+	 */
+	public int size() {
+		return Math.min(claimed.get(), maxLinks);
+	}
+
+	/**
+	 * Writes the urls seen and the urls waiting to be crawled. Must only be
+	 * called while no urls are being added, removed, or crawled.
+	 *
+	 * @param output the output to write to
+	 * @throws IOException if an IO error occurs
+	 *
+	 * @see #read(DataInputStream, int)
+	 */
+	public void write(DataOutputStream output) throws IOException {
+		output.writeBoolean(seen instanceof BloomFilter);
+		seen.write(output);
+		output.writeInt(size());
+
+		synchronized (hosts) {
+			// the url whose page triggered the checkpoint is still pending
+			int waiting = 0;
+
+			for (Host host : turns) {
+				waiting += host.urls.size();
+			}
+
+			output.writeInt(waiting);
+
+			for (Host host : turns) {
+				for (URL url : host.urls) {
+					IncrementalIndexProcessor.writeString(output, url.toString());
+				}
+			}
+
+			output.writeInt(depth);
+			output.writeInt(staged.size());
+
+			for (Candidate candidate : staged.values()) {
+				IncrementalIndexProcessor.writeString(output, candidate.text);
+				output.writeInt(candidate.links);
+			}
+		}
+	}
+
+	/**
+	 * Reads a frontier written by {@link #write(DataOutputStream)}. The frontier
+	 * remembers the urls seen the same way as the one written, but may be given a
+	 * different crawl budget.
+	 *
+	 * @param input the input to read from
+	 * @param maxLinks the maximum number of urls to crawl
+	 * @return the frontier read
+	 * @throws IOException if the data is malformed or an IO error occurs
+	 */
+	public static CrawlFrontier read(DataInputStream input, int maxLinks) throws IOException {
+		Seen seen = input.readBoolean() ? new BloomFilter(input) : new SeenSet(input);
+		CrawlFrontier frontier = new CrawlFrontier(maxLinks, seen);
+
+		frontier.claimed.set(input.readInt());
+		int waiting = input.readInt();
+
+		for (int i = 0; i < waiting; i++) {
+			frontier.enqueue(new URL(IncrementalIndexProcessor.readString(input)));
+		}
+
+		frontier.pending = waiting;
+		frontier.depth = input.readInt();
+		int candidates = input.readInt();
+
+		for (int i = 0; i < candidates; i++) {
+			Candidate candidate = new Candidate(new URL(IncrementalIndexProcessor.readString(input)));
+			candidate.links = input.readInt();
+			frontier.staged.put(hash(candidate.text), candidate);
+		}
+
+		return frontier;
+	}
+
+	/**
+	 * Returns the key of the host of a url
+	 *
+	 * @param url the url
+	 * @return the protocol, host name, and port of the url
+	 */
+	private static String host(URL url) {
+		int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+		return url.getProtocol().toLowerCase() + "://" + url.getHost().toLowerCase() + ":" + port;
+	}
+
+	/**
+	 * Hashes the text of a url to 64 bits, using FNV-1a followed by the final mix
+	 * of MurmurHash3 to spread the bits. With a million urls, the chance that any
+	 * two of them share a hash is below one in ten million.
+	 *
+	 * @param url the normalized url
+	 * @return the hash of the url
+	 */
+	public static long hash(String url) {
+		long hash = 0xcbf29ce484222325L;
+
+		for (int i = 0; i < url.length(); i++) {
+			hash ^= url.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	/** Scores the urls found at a depth, where urls with higher scores are crawled first */
+	@FunctionalInterface
+	public interface Priority {
+		/** Crawls breadth first, and in order of the url text at each depth */
+		Priority DEPTH = (url, depth, links) -> 0;
+
+		/** Crawls breadth first, starting with the urls linked to the most so far at each depth */
+		Priority LINKS = (url, depth, links) -> links;
+
+		/**
+		 * Scores a url
+		 *
+		 * @param url the url
+		 * @param depth the number of links followed from the seed to find the url
+		 * @param links the number of links to the url found so far
+		 * @return the score of the url
+		 */
+		double score(URL url, int depth, int links);
+	}
+
+	/** A url found for the next depth along with the links to it */
+	private static class Candidate {
+		/** The url */
+		private final URL url;
+
+		/** The text of the url */
+		private final String text;
+
+		/** The number of links to the url found so far */
+		private int links;
+
+		/** The score of the url */
+		private double score;
+
+		/**
+		 * Initializes a candidate found by one link
+		 *
+		 * @param url the url
+		 */
+		public Candidate(URL url) {
+			this.url = url;
+			this.text = url.toString();
+			this.links = 1;
+			this.score = 0;
+		}
+	}
+
+	/** The urls waiting for a host and how often the host is crawled */
+	private static class Host {
+		/** The urls waiting to be crawled */
+		private final Queue<URL> urls = new ArrayDeque<>();
+
+		/** The number of urls being fetched */
+		private int active = 0;
+
+		/** The earliest time in nanoseconds the next request may start */
+		private long next = System.nanoTime();
+	}
+
+	/** The hashes of the urls seen so far */
+	private interface Seen {
+		/**
+		 * Adds the hash of a url
+		 *
+		 * @param hash the hash to add
+		 * @return true if the hash was not seen before
+		 */
+		boolean add(long hash);
+
+		/**
+		 * Checks whether the hash of a url was added
+		 *
+		 * @param hash the hash to check
+		 * @return true if the hash was seen before
+		 */
+		boolean contains(long hash);
+
+		/**
+		 * Writes the hashes seen
+		 *
+		 * @param output the output to write to
+		 * @throws IOException if an IO error occurs
+		 */
+		void write(DataOutputStream output) throws IOException;
+	}
+
+	/**
+	 * An exact set of hashes, split into stripes that are locked separately. Each
+	 * stripe is an open addressing table of longs, so a url only takes 8 to 16
+	 * bytes.
+	 */
+	private static class SeenSet implements Seen {
+		/** The number of stripes, which must be a power of two */
+		private static final int STRIPES = 64;
+
+		/** The initial capacity of each stripe, which must be a power of two */
+		private static final int CAPACITY = 16;
+
+		/** The stripes of the set */
+		private final Stripe[] stripes;
+
+		/**
+		 * Initializes an empty set
+		 */
+		public SeenSet() {
+			this.stripes = new Stripe[STRIPES];
+
+			for (int i = 0; i < STRIPES; i++) {
+				stripes[i] = new Stripe();
+			}
+		}
+
+		/**
+		 * Initializes a set with the hashes written by {@link #write(DataOutputStream)}
+		 *
+		 * @param input the input to read from
+		 * @throws IOException if an IO error occurs
+		 */
+		public SeenSet(DataInputStream input) throws IOException {
+			this();
+
+			long count = input.readLong();
+
+			for (long i = 0; i < count; i++) {
+				add(input.readLong());
+			}
+		}
+
+		@Override
+		public void write(DataOutputStream output) throws IOException {
+			long count = 0;
+
+			for (Stripe stripe : stripes) {
+				count += stripe.size;
+			}
+
+			output.writeLong(count);
+
+			for (Stripe stripe : stripes) {
+				for (long hash : stripe.table) {
+					if (hash != 0) {
+						output.writeLong(hash);
+					}
+				}
+			}
+		}
+
+		@Override
+		public boolean add(long hash) {
+			// 0 marks an empty slot
+			if (hash == 0) {
+				hash = 1;
+			}
+
+			Stripe stripe = stripes[(int) (hash >>> 58) & (STRIPES - 1)];
+
+			synchronized (stripe) {
+				return stripe.add(hash);
+			}
+		}
+
+		@Override
+		public boolean contains(long hash) {
+			if (hash == 0) {
+				hash = 1;
+			}
+
+			Stripe stripe = stripes[(int) (hash >>> 58) & (STRIPES - 1)];
+
+			synchronized (stripe) {
+				return stripe.contains(hash);
+			}
+		}
+
+		/** A part of the set, guarded by its own lock */
+		private static class Stripe {
+			/** The slots of the table, where 0 is empty */
+			private long[] table = new long[CAPACITY];
+
+			/** The number of hashes in the table */
+			private int size = 0;
+
+			/**
+			 * Adds a nonzero hash, growing the table when it is half full
+			 *
+			 * @param hash the hash to add
+			 * @return true if the hash was not in the table
+			 */
+			public boolean add(long hash) {
+				if (!insert(table, hash)) {
+					return false;
+				}
+
+				if (++size > table.length / 2) {
+					long[] larger = new long[table.length * 2];
+
+					for (long old : table) {
+						if (old != 0) {
+							insert(larger, old);
+						}
+					}
+
+					table = larger;
+				}
+
+				return true;
+			}
+
+			/**
+			 * Checks whether a nonzero hash is in the table
+			 *
+			 * @param hash the hash to check
+			 * @return true if the hash is in the table
+			 */
+			public boolean contains(long hash) {
+				int mask = table.length - 1;
+				int slot = (int) hash & mask;
+
+				while (table[slot] != 0) {
+					if (table[slot] == hash) {
+						return true;
+					}
+
+					slot = (slot + 1) & mask;
+				}
+
+				return false;
+			}
+
+			/**
+			 * Inserts a nonzero hash into a table with linear probing
+			 *
+			 * @param table the table to insert into
+			 * @param hash the hash to insert
+			 * @return true if the hash was not in the table
+			 */
+			private static boolean insert(long[] table, long hash) {
+				int mask = table.length - 1;
+				int slot = (int) hash & mask;
+
+				while (table[slot] != 0) {
+					if (table[slot] == hash) {
+						return false;
+					}
+
+					slot = (slot + 1) & mask;
+				}
+
+				table[slot] = hash;
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * A Bloom filter of hashes. The bit positions are derived from the two halves
+	 * of the 64-bit hash. Adding the same hash is serialized by a lock chosen from
+	 * the hash, so that the same url is never reported as new twice.
+	 */
+	private static class BloomFilter implements Seen {
+		/** The number of locks, which must be a power of two */
+		private static final int LOCKS = 64;
+
+		/** The bits of the filter */
+		private final AtomicLongArray bits;
+
+		/** The number of bits in the filter */
+		private final long size;
+
+		/** The number of bits set for each hash */
+		private final int functions;
+
+		/** The locks used when adding a hash */
+		private final Object[] locks;
+
+		/**
+		 * Initializes an empty filter
+		 *
+		 * @param expected the number of hashes expected to be added
+		 * @param falsePositives the chance a new hash is mistaken for one added
+		 */
+		public BloomFilter(int expected, double falsePositives) {
+			double rate = Math.min(0.5, Math.max(1e-9, falsePositives));
+			long optimal = (long) Math.ceil(-expected * Math.log(rate) / (Math.log(2) * Math.log(2)));
+
+			this.bits = new AtomicLongArray((int) Math.min(Integer.MAX_VALUE, (optimal + 63) / 64));
+			this.size = bits.length() * 64L;
+			this.functions = (int) Math.max(1, Math.round((double) size / expected * Math.log(2)));
+			this.locks = newLocks();
+		}
+
+		/**
+		 * Initializes a filter with the bits written by {@link #write(DataOutputStream)}
+		 *
+		 * @param input the input to read from
+		 * @throws IOException if an IO error occurs
+		 */
+		public BloomFilter(DataInputStream input) throws IOException {
+			this.functions = input.readInt();
+			this.bits = new AtomicLongArray(input.readInt());
+			this.size = bits.length() * 64L;
+			this.locks = newLocks();
+
+			if (functions < 1 || size == 0) {
+				throw new IOException("Malformed Bloom filter");
+			}
+
+			for (int i = 0; i < bits.length(); i++) {
+				bits.set(i, input.readLong());
+			}
+		}
+
+		/**
+		 * Creates the locks used when adding a hash
+		 *
+		 * @return the locks
+		 */
+		private static Object[] newLocks() {
+			Object[] locks = new Object[LOCKS];
+
+			for (int i = 0; i < LOCKS; i++) {
+				locks[i] = new Object();
+			}
+
+			return locks;
+		}
+
+		@Override
+		public void write(DataOutputStream output) throws IOException {
+			output.writeInt(functions);
+			output.writeInt(bits.length());
+
+			for (int i = 0; i < bits.length(); i++) {
+				output.writeLong(bits.get(i));
+			}
+		}
+
+		@Override
+		public boolean add(long hash) {
+			int first = (int) hash;
+			int second = (int) (hash >>> 32);
+			boolean added = false;
+
+			synchronized (locks[(int) (hash >>> 58) & (LOCKS - 1)]) {
+				for (int i = 0; i < functions; i++) {
+					long bit = Math.floorMod(first + (long) i * second, size);
+					long mask = 1L << bit;
+
+					if ((bits.getAndAccumulate((int) (bit >>> 6), mask, (a, b) -> a | b) & mask) == 0) {
+						added = true;
+					}
+				}
+			}
+
+			return added;
+		}
+
+		@Override
+		public boolean contains(long hash) {
+			int first = (int) hash;
+			int second = (int) (hash >>> 32);
+
+			for (int i = 0; i < functions; i++) {
+				long bit = Math.floorMod(first + (long) i * second, size);
+
+				if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+	}
+}
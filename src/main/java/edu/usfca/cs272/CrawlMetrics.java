@@ -0,0 +1,536 @@
+package edu.usfca.cs272;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Measures a web crawl: how many pages it crawled and how fast, how much
+ * content it received, which status codes the servers responded with, how
+ * often fetches failed or were retried, and how long each step of a page took
+ * from fetching it to merging it into the index. The metrics can be summarized
+ * periodically while the crawl runs and once it is done, either in the log or
+ * as a JSON object in a file.
+ *
+ * <p>
+ * Pages streamed while they are downloaded are cleaned and parsed as part of
+ * their fetch, so their parse time is included in the fetch time instead.
+ * Times are counted in buckets that double in size, so percentiles are
+ * estimates within a factor of two.
+ *
+ * @see WebCrawler#getMetrics()
+ *
+ * @author Isaac Meltsner
+ */
+public class CrawlMetrics {
+	/** Default time in milliseconds between periodic summaries */
+	public static final long INTERVAL = 10000;
+
+	/** The timer used for periodic summaries */
+	private static final ScheduledThreadPoolExecutor timer = createTimer();
+
+	/** The stages of the crawl, which are summarized along with it */
+	private final CrawlStage[] stages;
+
+	/** The time in nanoseconds the crawl started */
+	private final long started;
+
+	/** The time in nanoseconds the crawl ended, or 0 if it is still running */
+	private volatile long ended;
+
+	/** The bytes received by the fetchers before the crawl started */
+	private final long receivedBefore;
+
+	/** The bytes decoded by the fetchers before the crawl started */
+	private final long decodedBefore;
+
+	/** The status codes counted by the fetchers before the crawl started */
+	private final Map<Integer, Long> statusesBefore;
+
+	/** The number of urls crawled, whether or not they were indexed */
+	private final LongAdder crawled;
+
+	/** The number of pages added to the index */
+	private final LongAdder indexed;
+
+	/** The number of pages skipped as duplicates */
+	private final LongAdder duplicates;
+
+	/** The number of fetches that failed in a way that may succeed later */
+	private final LongAdder errors;
+
+	/** The number of fetches retried */
+	private final LongAdder retries;
+
+	/** The time to fetch a page, including failed attempts */
+	private final Histogram fetch;
+
+	/** The time to clean and parse a fetched page */
+	private final Histogram parse;
+
+	/** The time waited for other threads before merging a page into the index */
+	private final Histogram mergeWait;
+
+	/** The time to merge a page into the index once it may */
+	private final Histogram merge;
+
+	/** The periodic summaries, or null if they were not started */
+	private ScheduledFuture<?> reports;
+
+	/** Logger used for this class */
+	private static final Logger log = LogManager.getLogger();
+
+	/**
+	 * Starts measuring a crawl
+	 *
+	 * @param stages the stages of the crawl to summarize along with it
+	 */
+	public CrawlMetrics(CrawlStage... stages) {
+		this.stages = stages.clone();
+		this.started = System.nanoTime();
+		this.ended = 0;
+		this.receivedBefore = HtmlFetcher.getReceivedBytes();
+		this.decodedBefore = HtmlFetcher.getDecodedBytes();
+		this.statusesBefore = HtmlFetcher.getStatusCounts();
+		this.crawled = new LongAdder();
+		this.indexed = new LongAdder();
+		this.duplicates = new LongAdder();
+		this.errors = new LongAdder();
+		this.retries = new LongAdder();
+		this.fetch = new Histogram("fetch");
+		this.parse = new Histogram("parse");
+		this.mergeWait = new Histogram("merge wait");
+		this.merge = new Histogram("merge");
+	}
+
+	/**
+	 * Records a fetch attempt, whether or not it succeeded
+	 *
+	 * @param nanos the time the fetch took in nanoseconds
+	 */
+	public void fetched(long nanos) {
+		fetch.record(nanos);
+	}
+
+	/**
+	 * Records cleaning and parsing a fetched page
+	 *
+	 * @param nanos the time it took in nanoseconds
+	 */
+	public void parsed(long nanos) {
+		parse.record(nanos);
+	}
+
+	/**
+	 * Records a page added to the index
+	 *
+	 * @param wait the time in nanoseconds waited for other threads using the index
+	 * @param nanos the time in nanoseconds the merge took once it could start
+	 */
+	public void merged(long wait, long nanos) {
+		mergeWait.record(wait);
+		merge.record(nanos);
+		indexed.increment();
+	}
+
+	/**
+	 * Records a page that replaced an older version of itself in the index, which
+	 * is timed as a whole including any wait
+	 *
+	 * @param nanos the time in nanoseconds the replacement took
+	 */
+	public void replaced(long nanos) {
+		merge.record(nanos);
+		indexed.increment();
+	}
+
+	/**
+	 * Records a page skipped as a duplicate
+	 */
+	public void duplicate() {
+		duplicates.increment();
+	}
+
+	/**
+	 * Records a fetch that failed in a way that may succeed later
+	 *
+	 * @param retried whether the fetch is tried again
+	 */
+	public void failed(boolean retried) {
+		errors.increment();
+
+		if (retried) {
+			retries.increment();
+		}
+	}
+
+	/**
+	 * Records a url that is done being crawled, whether or not it was indexed
+	 */
+	public void finished() {
+		crawled.increment();
+	}
+
+	/**
+	 * Summarizes the crawl periodically until it is stopped, in the log and
+	 * optionally in a file that is overwritten with each summary
+	 *
+	 * @param interval the time in milliseconds between summaries
+	 * @param output the file to write each summary to, or null to only log them
+	 *
+	 * @see #stop()
+	 */
+	public synchronized void start(long interval, Path output) {
+		if (reports != null || interval <= 0) {
+			return;
+		}
+
+		reports = timer.scheduleAtFixedRate(() -> report(output), interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops measuring the crawl and its periodic summaries
+	 */
+	public synchronized void stop() {
+		if (reports != null) {
+			reports.cancel(false);
+			reports = null;
+		}
+
+		if (ended == 0) {
+			ended = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Logs a summary of the crawl, and writes it to a file if there is one
+	 *
+	 * @param output the file to write to, or null to only log the summary
+	 */
+	private void report(Path output) {
+		log.info("Crawl {}", this);
+
+		if (output != null) {
+			try {
+				write(output);
+			}
+			catch (IOException e) {
+				log.warn("Unable to write crawl metrics to path: {}", output);
+				log.catching(Level.DEBUG, e);
+			}
+		}
+	}
+
+	/**
+	 * Writes the metrics of the crawl so far to a file as a JSON object
+	 *
+	 * @param output the file to write to
+	 * @throws IOException if an IO error occurs
+	 *
+	 * @see #toMap()
+	 */
+	public void write(Path output) throws IOException {
+		JsonWriter.writeObject(toMap(), output);
+	}
+
+	/**
+	 * Returns the time the crawl has taken
+	 *
+	 * @return the time in seconds
+	 */
+	public double getSeconds() {
+		long end = ended != 0 ? ended : System.nanoTime();
+		return (end - started) / 1e9;
+	}
+
+	/**
+	 * Returns the number of urls crawled, whether or not they were indexed
+	 *
+	 * @return the number of urls
+	 */
+	public long getCrawled() {
+		return crawled.sum();
+	}
+
+	/**
+	 * Returns the number of pages added to the index
+	 *
+	 * @return the number of pages
+	 */
+	public long getIndexed() {
+		return indexed.sum();
+	}
+
+	/**
+	 * Returns the number of urls crawled per second
+	 *
+	 * @return the pages per second
+	 */
+	public double getPagesPerSecond() {
+		double seconds = getSeconds();
+		return seconds > 0 ? getCrawled() / seconds : 0;
+	}
+
+	/**
+	 * Returns the bytes of content received since the crawl started, before
+	 * decoding
+	 *
+	 * @return the bytes received
+	 */
+	public long getReceivedBytes() {
+		return HtmlFetcher.getReceivedBytes() - receivedBefore;
+	}
+
+	/**
+	 * Returns the bytes of content received per second
+	 *
+	 * @return the bytes per second
+	 */
+	public double getBytesPerSecond() {
+		double seconds = getSeconds();
+		return seconds > 0 ? getReceivedBytes() / seconds : 0;
+	}
+
+	/**
+	 * Returns the number of responses with each status code since the crawl
+	 * started, including the redirects followed
+	 *
+	 * @return the number of responses by status code
+	 */
+	public Map<Integer, Long> getStatusCounts() {
+		Map<Integer, Long> counts = HtmlFetcher.getStatusCounts();
+		statusesBefore.forEach((status, before) -> counts.computeIfPresent(status, (key, count) -> count - before));
+		counts.values().removeIf(count -> count == 0);
+		return counts;
+	}
+
+	/**
+	 * Returns the number of redirect responses since the crawl started
+	 *
+	 * @return the number of redirects
+	 */
+	public long getRedirects() {
+		return getStatusCounts().entrySet().stream()
+				.filter(entry -> entry.getKey() >= 300 && entry.getKey() <= 399 && entry.getKey() != 304)
+				.mapToLong(Map.Entry::getValue)
+				.sum();
+	}
+
+	/**
+	 * Returns the metrics of the crawl so far by name, in the order they are
+	 * summarized. Times are in milliseconds.
+	 *
+	 * @return the metrics by name
+	 */
+	public Map<String, Number> toMap() {
+		Map<String, Number> metrics = new LinkedHashMap<>();
+
+		metrics.put("seconds", round(getSeconds()));
+		metrics.put("pages crawled", getCrawled());
+		metrics.put("pages indexed", getIndexed());
+		metrics.put("pages per second", round(getPagesPerSecond()));
+		metrics.put("bytes received", getReceivedBytes());
+		metrics.put("bytes decoded", HtmlFetcher.getDecodedBytes() - decodedBefore);
+		metrics.put("bytes per second", round(getBytesPerSecond()));
+		metrics.put("duplicates", duplicates.sum());
+		metrics.put("errors", errors.sum());
+		metrics.put("retries", retries.sum());
+		metrics.put("redirects", getRedirects());
+
+		getStatusCounts().forEach((status, count) -> metrics.put("status " + status, count));
+
+		for (Histogram histogram : new Histogram[] { fetch, parse, mergeWait, merge }) {
+			histogram.addTo(metrics);
+		}
+
+		for (CrawlStage stage : stages) {
+			metrics.put(stage.getName() + " stage tasks", stage.getCompleted());
+			metrics.put(stage.getName() + " stage average wait ms", round(stage.getAverageWait()));
+			metrics.put(stage.getName() + " stage utilization", round(stage.getUtilization()));
+		}
+
+		return metrics;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d pages (%d indexed) in %.1f s at %.1f pages/s and %.0f bytes/s, %d errors, %d retries, %d redirects, statuses %s; %s; %s; %s; %s",
+				getCrawled(), getIndexed(), getSeconds(), getPagesPerSecond(), getBytesPerSecond(), errors.sum(), retries.sum(),
+				getRedirects(), getStatusCounts(), fetch, parse, mergeWait, merge);
+	}
+
+	/**
+	 * Rounds a value to two decimal places for a summary
+	 *
+	 * @param value the value to round
+	 * @return the rounded value
+	 */
+	private static double round(double value) {
+		return Math.round(value * 100) / 100.0;
+	}
+
+	/**
+	 * Creates the timer used for periodic summaries, whose thread does not keep
+	 * the program running
+	 *
+	 * @return the timer
+	 */
+	private static ScheduledThreadPoolExecutor createTimer() {
+		ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, task -> {
+			Thread thread = new Thread(task, "crawl-metrics");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		timer.setRemoveOnCancelPolicy(true);
+		return timer;
+	}
+
+	/**
+	 * Counts times in buckets that double in size, starting at a microsecond,
+	 * so that percentiles can be estimated without keeping every time. A
+	 * percentile is reported as the upper bound of the bucket it falls in.
+	 */
+	public static class Histogram {
+		/** The number of buckets, enough for times of over a day */
+		private static final int BUCKETS = 40;
+
+		/** The name of the measured step */
+		private final String name;
+
+		/** The number of times in each bucket */
+		private final AtomicLongArray buckets;
+
+		/** The number of times recorded */
+		private final LongAdder count;
+
+		/** The total of the times recorded in nanoseconds */
+		private final LongAdder total;
+
+		/** The longest time recorded in nanoseconds */
+		private final AtomicLong max;
+
+		/**
+		 * Initializes an empty histogram
+		 *
+		 * @param name the name of the measured step
+		 */
+		public Histogram(String name) {
+			this.name = name;
+			this.buckets = new AtomicLongArray(BUCKETS);
+			this.count = new LongAdder();
+			this.total = new LongAdder();
+			this.max = new AtomicLong(0);
+		}
+
+		/**
+		 * Records a time
+		 *
+		 * @param nanos the time in nanoseconds
+		 */
+		public void record(long nanos) {
+			nanos = Math.max(0, nanos);
+			long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+			buckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros)));
+			count.increment();
+			total.add(nanos);
+			max.accumulateAndGet(nanos, Math::max);
+		}
+
+		/**
+		 * Returns the number of times recorded
+		 *
+		 * @return the number of times
+		 */
+		public long getCount() {
+			return count.sum();
+		}
+
+		/**
+		 * Returns the average time recorded
+		 *
+		 * @return the average in milliseconds
+		 */
+		public double getAverage() {
+			long count = this.count.sum();
+			return count > 0 ? total.sum() / 1e6 / count : 0;
+		}
+
+		/**
+		 * Returns the longest time recorded
+		 *
+		 * @return the longest time in milliseconds
+		 */
+		public double getMax() {
+			return max.get() / 1e6;
+		}
+
+		/**
+		 * Estimates the time that the given fraction of the times recorded did not
+		 * exceed
+		 *
+		 * @param fraction the percentile between 0 and 1
+		 * @return the upper bound of the bucket of the percentile in milliseconds,
+		 *   but at most the longest time recorded
+		 */
+		public double getPercentile(double fraction) {
+			long[] counts = new long[BUCKETS];
+			long recorded = 0;
+
+			// the buckets are copied so they add up even while times are recorded
+			for (int i = 0; i < BUCKETS; i++) {
+				counts[i] = buckets.get(i);
+				recorded += counts[i];
+			}
+
+			if (recorded == 0) {
+				return 0;
+			}
+
+			long rank = (long) Math.ceil(Math.min(1, Math.max(0, fraction)) * recorded);
+			long seen = 0;
+
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += counts[i];
+
+				if (seen >= rank && seen > 0) {
+					return Math.min((1L << i) / 1e3, getMax());
+				}
+			}
+
+			return getMax();
+		}
+
+		/**
+		 * Adds the count, average, percentiles, and maximum of the times to the
+		 * metrics of a crawl
+		 *
+		 * @param metrics the metrics by name
+		 */
+		private void addTo(Map<String, Number> metrics) {
+			metrics.put(name + " count", getCount());
+			metrics.put(name + " average ms", round(getAverage()));
+			metrics.put(name + " p50 ms", round(getPercentile(0.50)));
+			metrics.put(name + " p90 ms", round(getPercentile(0.90)));
+			metrics.put(name + " p99 ms", round(getPercentile(0.99)));
+			metrics.put(name + " max ms", round(getMax()));
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s %d times, %.1f ms average, p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms",
+					name, getCount(), getAverage(), getPercentile(0.50), getPercentile(0.90), getPercentile(0.99), getMax());
+		}
+	}
+}
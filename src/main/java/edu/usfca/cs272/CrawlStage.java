@@ -0,0 +1,234 @@
+package edu.usfca.cs272;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A stage of the crawl pipeline, such as fetching pages or indexing them, with
+ * its own workers and a limit on how many tasks may be waiting or running in it
+ * at once. Work is only taken from the stage before once there is room, so a
+ * slow stage holds back the stages feeding it instead of letting work pile up
+ * in memory. The stage also measures how long tasks wait and run, and how busy
+ * its workers are.
+ *
+ * <p>
+ * A slot is claimed for each task before it is run, either only if there is
+ * room, or regardless of the limit for work that was already done by an
+ * earlier stage and must not be dropped. The slot is freed once the task is
+ * done, and the stage then calls its release callback so that more work can
+ * be taken.
+ *
+ * @author Isaac Meltsner
+ */
+public class CrawlStage {
+	/** The name of the stage */
+	private final String name;
+
+	/** The workers of the stage, or null if its work runs elsewhere */
+	private final WorkQueue workers;
+
+	/** The maximum number of tasks waiting or running before the stage is full */
+	private final int capacity;
+
+	/** Called whenever a slot is freed */
+	private final Runnable released;
+
+	/** The number of tasks waiting or running */
+	private final AtomicInteger load;
+
+	/** The most tasks waiting or running at once */
+	private final AtomicInteger peak;
+
+	/** The number of tasks done */
+	private final LongAdder completed;
+
+	/** The total time in nanoseconds tasks waited for a worker */
+	private final LongAdder waited;
+
+	/** The total time in nanoseconds tasks ran */
+	private final LongAdder busy;
+
+	/** The time in nanoseconds the stage was created */
+	private final long started;
+
+	/**
+	 * Initializes a stage
+	 *
+	 * @param name the name of the stage
+	 * @param workers the workers of the stage, or null if its work runs elsewhere
+	 * @param capacity the maximum number of tasks waiting or running before the
+	 *   stage is full
+	 * @param released called whenever a slot is freed
+	 */
+	public CrawlStage(String name, WorkQueue workers, int capacity, Runnable released) {
+		this.name = name;
+		this.workers = workers;
+		this.capacity = Math.max(1, capacity);
+		this.released = released;
+		this.load = new AtomicInteger(0);
+		this.peak = new AtomicInteger(0);
+		this.completed = new LongAdder();
+		this.waited = new LongAdder();
+		this.busy = new LongAdder();
+		this.started = System.nanoTime();
+	}
+
+	/**
+	 * Returns whether another task may be claimed without exceeding the limit
+	 *
+	 * @return true if the stage is not full
+	 */
+	public boolean hasRoom() {
+		return load.get() < capacity;
+	}
+
+	/**
+	 * Claims a slot for a task if the stage is not full
+	 *
+	 * @return true if the slot was claimed, false if the stage is full
+	 */
+	public boolean reserve() {
+		int current;
+
+		do {
+			current = load.get();
+
+			if (current >= capacity) {
+				return false;
+			}
+		} while (!load.compareAndSet(current, current + 1));
+
+		peak.accumulateAndGet(current + 1, Math::max);
+		return true;
+	}
+
+	/**
+	 * Claims a slot for a task even if the stage is full
+	 */
+	public void admit() {
+		peak.accumulateAndGet(load.incrementAndGet(), Math::max);
+	}
+
+	/**
+	 * Frees a claimed slot without running a task. The release callback is not
+	 * called, since the slot was never used.
+	 */
+	public void cancel() {
+		load.decrementAndGet();
+	}
+
+	/**
+	 * Runs a task on a claimed slot with the workers of the stage, and frees the
+	 * slot once it is done
+	 *
+	 * @param task the task to run
+	 */
+	public void run(Runnable task) {
+		long queued = System.nanoTime();
+
+		workers.execute(() -> {
+			long start = System.nanoTime();
+			waited.add(start - queued);
+
+			try {
+				task.run();
+			}
+			finally {
+				done(start);
+			}
+		});
+	}
+
+	/**
+	 * Claims a slot even if the stage is full, and runs a task on it
+	 *
+	 * @param task the task to run
+	 *
+	 * @see #admit()
+	 * @see #run(Runnable)
+	 */
+	public void submit(Runnable task) {
+		admit();
+		run(task);
+	}
+
+	/**
+	 * Frees the slot of a task that ran outside of the workers of the stage
+	 *
+	 * @param start the time in nanoseconds the task started
+	 */
+	public void done(long start) {
+		busy.add(System.nanoTime() - start);
+		completed.increment();
+		load.decrementAndGet();
+		released.run();
+	}
+
+	/**
+	 * Returns the name of the stage
+	 *
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the number of tasks waiting or running
+	 *
+	 * @return the load of the stage
+	 */
+	public int getLoad() {
+		return load.get();
+	}
+
+	/**
+	 * Returns the number of tasks done
+	 *
+	 * @return the number of tasks
+	 */
+	public long getCompleted() {
+		return completed.sum();
+	}
+
+	/**
+	 * Returns the average time tasks waited for a worker
+	 *
+	 * @return the average wait in milliseconds
+	 */
+	public double getAverageWait() {
+		long count = completed.sum();
+		return count > 0 ? waited.sum() / 1e6 / count : 0;
+	}
+
+	/**
+	 * Returns the average time tasks ran
+	 *
+	 * @return the average time in milliseconds
+	 */
+	public double getAverageTime() {
+		long count = completed.sum();
+		return count > 0 ? busy.sum() / 1e6 / count : 0;
+	}
+
+	/**
+	 * Returns how busy the stage was since it was created. For a stage with
+	 * workers, this is the fraction of time its workers were running tasks, and
+	 * otherwise the average fraction of its slots that were in use.
+	 *
+	 * @return the utilization between 0 and 1
+	 */
+	public double getUtilization() {
+		long elapsed = System.nanoTime() - started;
+		int threads = workers != null ? Math.max(1, workers.maximum()) : capacity;
+		return elapsed > 0 ? Math.min(1, (double) busy.sum() / elapsed / threads) : 0;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: %d tasks, %.1f ms average wait, %.1f ms average time, %.0f%% busy, peak load %d of %d, %d s",
+				name, getCompleted(), getAverageWait(), getAverageTime(), getUtilization() * 100, peak.get(), capacity,
+				TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - started));
+	}
+}
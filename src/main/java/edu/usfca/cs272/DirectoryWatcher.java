@@ -0,0 +1,382 @@
+package edu.usfca.cs272;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+import static opennlp.tools.stemmer.snowball.SnowballStemmer.ALGORITHM.ENGLISH;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import opennlp.tools.stemmer.Stemmer;
+import opennlp.tools.stemmer.snowball.SnowballStemmer;
+
+/**
+ * Watches a directory tree for text files that are created, modified, or
+ * deleted and keeps an inverted index up to date with those changes. Changes
+ * are collected until no new events arrive for a short quiet period, and then
+ * processed together using a work queue.
+ *
+ * @author Isaac Meltsner
+ */
+public class DirectoryWatcher extends Thread {
+	/** Time in milliseconds without new events before changes are processed */
+	public static final long DEBOUNCE = 500;
+
+	/** Maximum time in milliseconds changes may wait before being processed */
+	public static final long MAX_DELAY = 5000;
+
+	/** Maximum number of changed paths collected before being processed */
+	public static final int MAX_BATCH = 1000;
+
+	/** The root directory being watched */
+	private final Path root;
+
+	/** The watch service to use */
+	private final WatchService watcher;
+
+	/** The directories registered with the watch service */
+	private final Map<WatchKey, Path> keys;
+
+	/** The paths of the directories registered with the watch service */
+	private final Set<Path> directories;
+
+	/** The inverted index to update */
+	private final ThreadSafeInvertedIndex index;
+
+	/** The entries found in each archive processed by the current update */
+	private final Map<Path, Set<String>> archives;
+
+	/** The work queue to use */
+	private final WorkQueue queue;
+
+	/** Used to signal the watcher should terminate */
+	private volatile boolean shutdown;
+
+	/** Logger used for this class */
+	private static final Logger log = LogManager.getLogger();
+
+	/**
+	 * Initializes the watcher and registers the directory tree at the root
+	 *
+	 * @param root the root directory to watch
+	 * @param index the inverted index to update
+	 * @param queue the work queue to use, which is joined when the watcher stops
+	 * @throws IOException if unable to register the directory tree
+	 */
+	public DirectoryWatcher(Path root, ThreadSafeInvertedIndex index, WorkQueue queue) throws IOException {
+		this.root = root;
+		this.watcher = root.getFileSystem().newWatchService();
+		this.keys = new HashMap<>();
+		this.directories = new HashSet<>();
+		this.index = index;
+		this.archives = new ConcurrentHashMap<>();
+		this.queue = queue;
+		this.shutdown = false;
+
+		setName("DirectoryWatcher");
+		register(root, new ArrayList<>());
+	}
+
+	/**
+	 * Registers a directory and all of its subdirectories with the watch service
+	 *
+	 * @param path the directory to register
+	 * @param files the list to add any text files found to
+	 * @throws IOException if IO error occurs
+	 */
+	private void register(Path path, List<Path> files) throws IOException {
+		keys.put(path.register(watcher, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), path);
+		directories.add(path);
+
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+			for (Path newPath : stream) {
+				if (Files.isDirectory(newPath)) {
+					register(newPath, files);
+				}
+				else if (InvertedIndexProcessor.isIndexable(newPath)) {
+					files.add(newPath);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Asks the watcher to stop. Changes that have not been processed yet are
+	 * discarded, but updates in progress are allowed to finish.
+	 */
+	public void shutdown() {
+		shutdown = true;
+
+		try {
+			watcher.close();
+		}
+		catch (IOException e) {
+			log.catching(Level.DEBUG, e);
+		}
+	}
+
+	@Override
+	public void run() {
+		Set<Path> changed = new LinkedHashSet<>();
+		boolean overflow = false;
+		long first = 0;
+
+		try {
+			while (!shutdown) {
+				WatchKey key = changed.isEmpty() && !overflow ? watcher.take() : watcher.poll(DEBOUNCE, TimeUnit.MILLISECONDS);
+
+				if (key != null) {
+					Path dir = keys.get(key);
+
+					for (WatchEvent<?> event : key.pollEvents()) {
+						if (event.kind() == OVERFLOW) {
+							overflow = true;
+						}
+						else if (dir != null) {
+							changed.add(dir.resolve((Path) event.context()));
+						}
+					}
+
+					if (!key.reset()) {
+						directories.remove(keys.remove(key));
+					}
+
+					if (first == 0) {
+						first = System.currentTimeMillis();
+					}
+				}
+
+				boolean quiet = key == null;
+				boolean full = changed.size() >= MAX_BATCH;
+				boolean late = first > 0 && System.currentTimeMillis() - first >= MAX_DELAY;
+
+				if ((quiet || full || late) && (overflow || !changed.isEmpty())) {
+					update(changed, overflow);
+					changed = new LinkedHashSet<>();
+					overflow = false;
+					first = 0;
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			log.catching(Level.WARN, e);
+			Thread.currentThread().interrupt();
+		}
+		catch (ClosedWatchServiceException e) {
+			log.debug("Watch service closed for {}.", root);
+		}
+		finally {
+			queue.join();
+		}
+	}
+
+	/**
+	 * Updates the index with a group of changed paths. Deleted text files and the
+	 * text files under deleted directories are removed, while created or modified
+	 * text files are processed again. If events were lost, the whole directory
+	 * tree is checked instead.
+	 *
+	 * @param changed the changed paths
+	 * @param overflow whether the watch service lost events
+	 */
+	private void update(Set<Path> changed, boolean overflow) {
+		List<Path> files = new ArrayList<>();
+
+		try {
+			if (overflow) {
+				register(root, files);
+				removeMissing(root);
+			}
+			else {
+				for (Path path : changed) {
+					if (Files.isDirectory(path)) {
+						// existing directories report their own changes
+						if (!directories.contains(path)) {
+							register(path, files);
+						}
+					}
+					else if (Files.exists(path)) {
+						if (InvertedIndexProcessor.isIndexable(path)) {
+							files.add(path);
+						}
+					}
+					else if (index.removeLocation(path.toString())) {
+						continue;
+					}
+					else if (directories.removeIf(directory -> directory.startsWith(path))) {
+						// a directory could be created again later
+						removeMissing(path);
+					}
+					else if (ArchiveReader.isArchive(path)) {
+						removeArchive(path, Set.of());
+					}
+				}
+			}
+		}
+		catch (IOException e) {
+			log.warn("Unable to watch path: {}", root);
+			log.catching(Level.DEBUG, e);
+		}
+
+		List<Path> batch = new ArrayList<>();
+		long bytes = 0;
+
+		for (Path file : files) {
+			batch.add(file);
+
+			try {
+				bytes += Files.size(file);
+			}
+			catch (IOException e) {
+				log.catching(Level.DEBUG, e);
+			}
+
+			if (bytes >= QueuedInvertedIndexProcessor.BATCH_BYTES) {
+				queue.execute(new Task(batch));
+				batch = new ArrayList<>();
+				bytes = 0;
+			}
+		}
+
+		if (!batch.isEmpty()) {
+			queue.execute(new Task(batch));
+		}
+
+		// keeps an older update from finishing after a newer one
+		queue.finish();
+
+		// entries removed from an archive are only dropped once no task is updating the index
+		archives.forEach(this::removeArchive);
+		archives.clear();
+
+		log.info("Updated index with {} changed text files.", files.size());
+	}
+
+	/**
+	 * Removes the locations under a directory that no longer exist. Only called
+	 * by the watcher thread, which is the only thread updating the index.
+	 *
+	 * @param path the directory to check
+	 */
+	private void removeMissing(Path path) {
+		String prefix = path.toString() + path.getFileSystem().getSeparator();
+		String archive = path.toString() + ArchiveReader.SEPARATOR;
+
+		for (String location : List.copyOf(index.viewCounts().keySet())) {
+			// entries of an archive exist as long as the archive itself exists
+			int separator = location.indexOf(ArchiveReader.SEPARATOR);
+			String file = separator < 0 ? location : location.substring(0, separator);
+
+			if ((location.startsWith(prefix) || location.startsWith(archive)) && !Files.exists(Path.of(file))) {
+				index.removeLocation(location);
+			}
+		}
+	}
+
+	/**
+	 * Removes the entries of an archive from the index, except for the ones to
+	 * keep. Only called by the watcher thread while no task is updating the index.
+	 *
+	 * @param path the archive to remove entries of
+	 * @param keep the locations of the entries to keep
+	 */
+	private void removeArchive(Path path, Set<String> keep) {
+		String archive = path.toString() + ArchiveReader.SEPARATOR;
+
+		for (String location : List.copyOf(index.viewCounts().keySet())) {
+			if (location.startsWith(archive) && !keep.contains(location)) {
+				index.removeLocation(location);
+			}
+		}
+	}
+
+	/** Replaces the contents of a batch of files in the index */
+	private class Task implements Runnable {
+		/** The paths of the files to process */
+		private final List<Path> paths;
+
+		/** The stemmer to use */
+		private final Stemmer stemmer;
+
+		/**
+		 * Initializes the paths of the files to process
+		 *
+		 * @param paths the paths of the files
+		 */
+		private Task(List<Path> paths) {
+			this.paths = paths;
+			this.stemmer = new SnowballStemmer(ENGLISH);
+		}
+
+		@Override
+		public void run() {
+			for (Path path : paths) {
+				InvertedIndex local = new InvertedIndex();
+
+				try {
+					if (ArchiveReader.isArchive(path)) {
+						replaceArchive(path);
+						continue;
+					}
+
+					InvertedIndexProcessor.processFile(path, local, stemmer);
+				}
+				catch (IOException e) {
+					// deleted before it could be read, which a later event will handle
+					if (Files.exists(path)) {
+						// the rest of the batch is still updated, and this file is tried again when it changes
+						log.warn("Unable to process file at path: {}", path);
+						log.catching(Level.DEBUG, e);
+						continue;
+					}
+				}
+
+				if (!ArchiveReader.isArchive(path)) {
+					index.replaceLocation(path.toString(), local);
+				}
+			}
+		}
+
+		/**
+		 * Replaces the entries of an archive one at a time, so searches never see
+		 * the archive missing. The entries that are gone from it are removed by the
+		 * watcher once the update is finished.
+		 *
+		 * @param path the archive to process
+		 * @throws IOException if unable to read the archive
+		 */
+		private void replaceArchive(Path path) throws IOException {
+			Set<String> entries = new HashSet<>();
+
+			ArchiveReader.read(path, (location, input) -> {
+				InvertedIndex local = new InvertedIndex();
+				InvertedIndexProcessor.processReader(InvertedIndexProcessor.newReader(input), local, location, stemmer);
+				index.replaceLocation(location, local);
+				entries.add(location);
+			});
+
+			archives.put(path, entries);
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package edu.usfca.cs272;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Remembers the addresses of the hosts of a crawl so that each host is only
+ * looked up once in a while instead of for every connection. Hosts that could
+ * not be found are remembered as well for a shorter time, so links to a host
+ * that does not exist fail right away. Only one thread looks up a host at once,
+ * and the other threads needing it wait for that lookup instead of repeating
+ * it.
+ *
+ * @see HttpsFetcher#openConnection(java.net.URL, DnsCache)
+ *
+ * @author Isaac Meltsner
+ */
+public class DnsCache {
+	/** Default time in milliseconds the addresses of a host are remembered */
+	public static final long TTL = 300000;
+
+	/** Default time in milliseconds a host that could not be found is remembered */
+	public static final long NEGATIVE_TTL = 30000;
+
+	/** The lookups by lowercase host name */
+	private final ConcurrentHashMap<String, Lookup> lookups;
+
+	/** The time in nanoseconds the addresses of a host are remembered */
+	private final long ttl;
+
+	/** The time in nanoseconds a host that could not be found is remembered */
+	private final long negativeTtl;
+
+	/** Logger used for this class */
+	private static final Logger log = LogManager.getLogger();
+
+	/**
+	 * Initializes a cache with the default times
+	 */
+	public DnsCache() {
+		this(TTL, NEGATIVE_TTL);
+	}
+
+	/**
+	 * Initializes a cache
+	 *
+	 * @param ttl the time in milliseconds the addresses of a host are remembered
+	 * @param negativeTtl the time in milliseconds a host that could not be found
+	 *   is remembered
+	 */
+	public DnsCache(long ttl, long negativeTtl) {
+		this.lookups = new ConcurrentHashMap<>();
+		this.ttl = TimeUnit.MILLISECONDS.toNanos(Math.max(0, ttl));
+		this.negativeTtl = TimeUnit.MILLISECONDS.toNanos(Math.max(0, negativeTtl));
+	}
+
+	/**
+	 * Returns the addresses of a host, looking them up if they are not
+	 * remembered or were remembered too long ago
+	 *
+	 * @param host the host name or address
+	 * @return the addresses of the host
+	 * @throws UnknownHostException if the host could not be found
+	 */
+	public InetAddress[] resolve(String host) throws UnknownHostException {
+		Lookup lookup = lookups.computeIfAbsent(host.toLowerCase(Locale.ROOT), Lookup::new);
+		return lookup.get();
+	}
+
+	/**
+	 * Forgets every host
+	 */
+	public void clear() {
+		lookups.clear();
+	}
+
+	/**
+	 * Returns the number of hosts remembered, including the ones that expired
+	 *
+	 * @return the number of hosts
+	 */
+	public int size() {
+		return lookups.size();
+	}
+
+	/** The remembered result of looking up a host */
+	private class Lookup {
+		/** The host name */
+		private final String host;
+
+		/** The addresses of the host, or null if it was not found or not looked up yet */
+		private InetAddress[] addresses;
+
+		/** Why the host was not found, or null if it was */
+		private UnknownHostException failure;
+
+		/** The time in nanoseconds the result expires */
+		private long expires;
+
+		/** Whether the host was looked up yet */
+		private boolean resolved;
+
+		/**
+		 * Initializes a lookup that has not happened yet
+		 *
+		 * @param host the host name
+		 */
+		private Lookup(String host) {
+			this.host = host;
+			this.resolved = false;
+		}
+
+		/**
+		 * Returns the remembered addresses, looking the host up again first if the
+		 * result expired
+		 *
+		 * @return the addresses of the host
+		 * @throws UnknownHostException if the host could not be found
+		 */
+		private synchronized InetAddress[] get() throws UnknownHostException {
+			long now = System.nanoTime();
+
+			if (!resolved || now - expires >= 0) {
+				try {
+					addresses = InetAddress.getAllByName(host);
+					failure = null;
+					expires = now + ttl;
+				}
+				catch (UnknownHostException e) {
+					addresses = null;
+					failure = e;
+					expires = now + negativeTtl;
+				}
+
+				resolved = true;
+				log.debug("Resolved {} in {} ms.", host, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - now));
+			}
+
+			if (failure != null) {
+				throw new UnknownHostException(failure.getMessage());
+			}
+
+			return addresses.clone();
+		}
+	}
+}
@@ -30,19 +30,30 @@ public class Driver {
 
 		boolean html = parser.hasFlag("-html");
 		boolean launchServer = parser.hasFlag("-server");
-		boolean multiThread = parser.hasFlag("-threads") || html || launchServer;
+		boolean warc = parser.hasFlag("-warc");
+		boolean watch = parser.hasFlag("-watch");
+		boolean multiThread = parser.hasFlag("-threads") || html || launchServer || warc || watch;
 
 		if (multiThread) {
 			safe = new ThreadSafeInvertedIndex();
 			index = safe;
 
-			int threads = parser.getInteger("-threads", 5);
+			if (parser.hasFlag("-threads")) {
+				int threads = parser.getInteger("-threads", WorkQueue.DEFAULT);
 
-			if (threads < 1) {
-				threads = 5;
-			}
+				if (threads < 1) {
+					threads = WorkQueue.DEFAULT;
+				}
 
-			queue = new WorkQueue(threads);
+				// a fixed pool unless a larger maximum is also requested
+				queue = new WorkQueue(threads, parser.getInteger("-maxthreads", threads));
+			}
+			else {
+				// size the pool based on demand when not tuned by hand
+				int processors = Runtime.getRuntime().availableProcessors();
+				int maximum = parser.getInteger("-maxthreads", Math.max(WorkQueue.DEFAULT, processors * 2));
+				queue = new WorkQueue(1, maximum);
+			}
 			processor = new QueuedSearchProcessor(safe, parser.hasFlag("-partial"), queue);
 		}
 		else {
@@ -55,7 +66,20 @@ public class Driver {
 			Path input = parser.getPath("-text");
 
 			try {
-				if (multiThread) {
+				if (parser.hasFlag("-incremental")) {
+					Path snapshot = parser.getPath("-incremental", Path.of("snapshot.bin"));
+
+					if (multiThread) {
+						IncrementalIndexProcessor.process(input, safe, snapshot, queue);
+					}
+					else {
+						IncrementalIndexProcessor.process(input, index, snapshot);
+					}
+				}
+				else if (multiThread && parser.hasFlag("-forkjoin")) {
+					ForkJoinInvertedIndexProcessor.process(input, safe, queue.maximum());
+				}
+				else if (multiThread) {
 					QueuedInvertedIndexProcessor.process(input, safe, queue);
 				}
 				else {
@@ -77,11 +101,82 @@ public class Driver {
 			try {
 				String seed = parser.getString("-html");
 				WebCrawler crawler = new WebCrawler(seed, maxLinks, queue, safe);
-				crawler.crawl();
+
+				configure(crawler, parser);
+
+				AsyncHtmlFetcher async = parser.hasFlag("-async") ? new AsyncHtmlFetcher() : null;
+				crawler.setAsync(async);
+
+				DuplicateDetector duplicates = parser.hasFlag("-duplicates") ? new DuplicateDetector() : null;
+				crawler.setDuplicateDetector(duplicates);
+
+				Path metricsOutput = parser.hasFlag("-metrics") ? parser.getPath("-metrics", Path.of("metrics.json")) : null;
+				crawler.setReporting(CrawlMetrics.INTERVAL, metricsOutput);
+
+				if (parser.hasFlag("-checkpoint")) {
+					Path checkpoint = parser.getPath("-checkpoint", Path.of("checkpoint.bin"));
+					crawler.setCheckpoint(new CrawlCheckpoint(checkpoint), WebCrawler.CHECKPOINT_PAGES);
+
+					try {
+						if (parser.hasFlag("-resume")) {
+							crawler.resume();
+						}
+					}
+					catch (IOException e) {
+						System.out.println("Unable to resume crawl from checkpoint at path: " + checkpoint);
+					}
+				}
+
+				try {
+					crawler.crawl();
+				}
+				finally {
+					if (async != null) {
+						async.close();
+					}
+				}
+
+				if (duplicates != null) {
+					Path duplicatesOutput = parser.getPath("-duplicates", Path.of("duplicates.json"));
+
+					try {
+						JsonWriter.writeObjectQuotes(duplicates.getDuplicates(), duplicatesOutput);
+					}
+					catch (IOException e) {
+						System.out.println("Unable to write to file at path: " + duplicatesOutput.toString());
+					}
+				}
+
+				if (metricsOutput != null) {
+					try {
+						crawler.getMetrics().write(metricsOutput);
+					}
+					catch (IOException e) {
+						System.out.println("Unable to write to file at path: " + metricsOutput.toString());
+					}
+				}
 			}
 			catch (NullPointerException | MalformedURLException e) {
 				System.out.println("Invalid url");
 			}
+			catch (IOException e) {
+				System.out.println("Unable to use cache at path: " + parser.getPath("-cache", Path.of("cache")));
+			}
+		}
+
+		if (warc) {
+
+			Path input = parser.getPath("-warc");
+
+			try {
+				WarcProcessor.process(input, safe, queue);
+			}
+			catch (IOException | NumberFormatException e) {
+				System.out.println("Unable to process file at path: " + input);
+			}
+			catch (NullPointerException e) {
+				System.out.println("-warc flag is missing a value");
+			}
 		}
 
 		if (parser.hasFlag("-query")) {
@@ -139,6 +234,31 @@ public class Driver {
 			}
 		}
 
+		if (watch) {
+
+			Path input = parser.getPath("-text");
+
+			try {
+				DirectoryWatcher watcher = new DirectoryWatcher(input, safe, new WorkQueue(1, queue.maximum()));
+				watcher.start();
+
+				// lets an update in progress finish and joins the watcher's queue on exit
+				Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+					watcher.shutdown();
+
+					try {
+						watcher.join();
+					}
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}));
+			}
+			catch (IOException | NullPointerException e) {
+				System.out.println("Unable to watch directory at path: " + input);
+			}
+		}
+
 		if (launchServer) {
 
 			int port = parser.getInteger("-server", 8080);
@@ -155,4 +275,59 @@ public class Driver {
 			}
 		}
 	}
+
+	/**
+	 * Configures a crawler with the crawler flags of the command-line arguments.
+	 * The asynchronous fetcher, duplicate detector, metrics, and checkpoint are
+	 * left to the caller, since their lifetimes and outputs differ.
+	 *
+	 * @param crawler the crawler to configure
+	 * @param parser the command-line arguments
+	 * @throws IOException if unable to open the cache
+	 */
+	static void configure(WebCrawler crawler, ArgumentParser parser) throws IOException {
+		if (parser.hasFlag("-cache")) {
+			crawler.setCache(new FetchCache(parser.getPath("-cache", Path.of("cache"))));
+		}
+
+		if (parser.hasFlag("-timeout")) {
+			int timeout = parser.getInteger("-timeout", HttpsFetcher.READ_TIMEOUT);
+			HttpsFetcher.setTimeouts(timeout, timeout);
+		}
+
+		if (parser.hasFlag("-deadline") || parser.hasFlag("-maxbody")) {
+			long deadline = parser.hasFlag("-deadline") ? parser.getInteger("-deadline", (int) HtmlFetcher.DEADLINE) : HtmlFetcher.DEADLINE;
+			long maxBody = parser.hasFlag("-maxbody") ? parser.getInteger("-maxbody", (int) HtmlFetcher.MAX_BODY) : HtmlFetcher.MAX_BODY;
+			HtmlFetcher.setLimits(deadline, maxBody);
+		}
+
+		if (parser.hasFlag("-fetchers") || parser.hasFlag("-backlog")) {
+			int fetchers = parser.getInteger("-fetchers", WebCrawler.FETCHERS);
+			int backlog = parser.getInteger("-backlog", WebCrawler.BACKLOG);
+			crawler.setPipeline(fetchers, backlog);
+		}
+
+		if (parser.hasFlag("-retries")) {
+			crawler.setRetries(parser.getInteger("-retries", WebCrawler.RETRIES), WebCrawler.BACKOFF);
+		}
+
+		if (parser.hasFlag("-stream")) {
+			crawler.setStreaming(parser.getInteger("-stream", HtmlTokenizer.MAX_PAGE));
+		}
+
+		if (parser.hasFlag("-bloom")) {
+			crawler.setBloomFilter(1.0 / Math.max(2, parser.getInteger("-bloom", 10000)));
+		}
+
+		if (parser.hasFlag("-connections") || parser.hasFlag("-delay")) {
+			int connections = parser.hasFlag("-connections") ? parser.getInteger("-connections", 2) : 0;
+			int delay = parser.hasFlag("-delay") ? parser.getInteger("-delay", 1000) : 0;
+			crawler.setPoliteness(connections, delay);
+		}
+
+		if (parser.hasFlag("-priority")) {
+			boolean links = parser.getString("-priority", "depth").equalsIgnoreCase("links");
+			crawler.setPriority(links ? CrawlFrontier.Priority.LINKS : CrawlFrontier.Priority.DEPTH);
+		}
+	}
 }
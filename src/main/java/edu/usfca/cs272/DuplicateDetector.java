@@ -0,0 +1,393 @@
+package edu.usfca.cs272;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Finds crawled pages whose text duplicates a page that was already indexed,
+ * such as mirrors, print views, and urls that only differ by their session
+ * parameters. Each page is fingerprinted by the stemmed words in its local
+ * index with an exact hash of every word and position, and with a SimHash of
+ * how often each word appears. Pages with the same exact hash are identical,
+ * and long enough pages whose SimHashes differ in only a few bits are nearly
+ * identical.
+ *
+ * @see <a href="https://doi.org/10.1145/1242572.1242592">Detecting
+ *   Near-Duplicates for Web Crawling</a>
+ *
+ * @author Isaac Meltsner
+ */
+public class DuplicateDetector {
+	/** Default maximum number of bits two near-duplicate SimHashes differ by */
+	public static final int DISTANCE = 3;
+
+	/** Default minimum number of words a page needs to be compared by SimHash */
+	public static final int MIN_WORDS = 50;
+
+	/** The number of blocks a SimHash is split into to find near-duplicates */
+	private static final int BLOCKS = 4;
+
+	/** The maximum number of bits two near-duplicate SimHashes differ by */
+	private final int distance;
+
+	/** The minimum number of words a page needs to be compared by SimHash */
+	private final int minWords;
+
+	/** The indexed locations by the exact hash of their text */
+	private final Map<Long, String> exact;
+
+	/** The indexed SimHashes by each of their blocks, used to find nearby SimHashes */
+	private final Map<Long, List<Fingerprint>> blocks;
+
+	/** The fingerprint of each indexed location */
+	private final Map<String, Fingerprint> indexed;
+
+	/** The canonical location of each duplicate location */
+	private final Map<String, String> duplicates;
+
+	/**
+	 * Initializes a detector with the default limits
+	 */
+	public DuplicateDetector() {
+		this(DISTANCE, MIN_WORDS);
+	}
+
+	/**
+	 * Initializes a detector
+	 *
+	 * @param distance the maximum number of bits two near-duplicate SimHashes
+	 *   differ by, or a negative number to only find exact duplicates
+	 * @param minWords the minimum number of words a page needs to be compared by
+	 *   SimHash
+	 */
+	public DuplicateDetector(int distance, int minWords) {
+		// blocks only find every nearby hash when one of them must be identical
+		this.distance = Math.min(distance, BLOCKS - 1);
+		this.minWords = minWords;
+		this.exact = new HashMap<>();
+		this.blocks = new HashMap<>();
+		this.indexed = new HashMap<>();
+		this.duplicates = new TreeMap<>();
+	}
+
+	/**
+	 * Checks whether the text of a page duplicates a page that was already
+	 * indexed. If not, the page is remembered as indexed. Otherwise, the canonical
+	 * location is recorded for the page. The pages recorded as duplicates of a
+	 * page checked again are moved to its canonical location if its text is
+	 * unchanged, and dropped otherwise.
+	 *
+	 * @param location the location of the page
+	 * @param local the local index of the page
+	 * @return the canonical location if the page is a duplicate, or null if the
+	 *   page should be indexed
+	 */
+	public String check(String location, InvertedIndex local) {
+		int words = local.getCount(location);
+
+		if (words <= 0) {
+			return null;
+		}
+
+		Fingerprint fingerprint = fingerprint(location, local);
+		boolean near = distance >= 0 && words >= minWords;
+
+		synchronized (this) {
+			// a page checked again is only compared to the other pages
+			Fingerprint old = forget(location);
+
+			if (old != null && old.exact != fingerprint.exact) {
+				duplicates.values().removeIf(location::equals);
+			}
+
+			String canonical = exact.get(fingerprint.exact);
+
+			if (canonical == null && near) {
+				canonical = findNear(fingerprint.simhash);
+			}
+
+			if (canonical != null) {
+				String found = canonical;
+				duplicates.put(location, found);
+				duplicates.replaceAll((page, other) -> other.equals(location) ? found : other);
+				return canonical;
+			}
+
+			// a page indexed again may not be a duplicate anymore
+			duplicates.remove(location);
+			exact.put(fingerprint.exact, location);
+			indexed.put(location, fingerprint);
+
+			if (near) {
+				for (int i = 0; i < BLOCKS; i++) {
+					blocks.computeIfAbsent(block(fingerprint.simhash, i), key -> new ArrayList<>()).add(fingerprint);
+				}
+			}
+
+			return null;
+		}
+	}
+
+	/**
+	 * Forgets a page whose text changed or that is no longer indexed, so later
+	 * pages are not skipped as duplicates of text that is gone. The pages
+	 * recorded as duplicates of it are dropped from the duplicates as well.
+	 *
+	 * @param location the location of the page
+	 */
+	public synchronized void remove(String location) {
+		forget(location);
+		duplicates.remove(location);
+		duplicates.values().removeIf(location::equals);
+	}
+
+	/**
+	 * Removes the fingerprint of an indexed page
+	 *
+	 * @param location the location of the page
+	 * @return the fingerprint removed, or null if the page was not indexed
+	 */
+	private Fingerprint forget(String location) {
+		Fingerprint old = indexed.remove(location);
+
+		if (old == null) {
+			return null;
+		}
+
+		exact.remove(old.exact, location);
+
+		for (int i = 0; i < BLOCKS; i++) {
+			Long key = block(old.simhash, i);
+			List<Fingerprint> list = blocks.get(key);
+
+			if (list != null && list.removeIf(fingerprint -> fingerprint == old) && list.isEmpty()) {
+				blocks.remove(key);
+			}
+		}
+
+		return old;
+	}
+
+	/**
+	 * Finds an indexed page whose SimHash differs by at most the distance. Two
+	 * hashes that differ in at most 3 bits have at least one of their 4 blocks
+	 * in common, so only the pages sharing a block are compared.
+	 *
+	 * @param simhash the SimHash to find
+	 * @return the location of a nearby page, or null if there is none
+	 */
+	private String findNear(long simhash) {
+		for (int i = 0; i < BLOCKS; i++) {
+			for (Fingerprint other : blocks.getOrDefault(block(simhash, i), Collections.emptyList())) {
+				if (Long.bitCount(simhash ^ other.simhash) <= distance) {
+					return other.location;
+				}
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns the canonical location of each page skipped as a duplicate
+	 *
+	 * @return an unmodifiable copy of the duplicate locations and their canonical
+	 *   locations
+	 */
+	public synchronized Map<String, String> getDuplicates() {
+		return Collections.unmodifiableMap(new TreeMap<>(duplicates));
+	}
+
+	/**
+	 * Writes the fingerprints of the indexed pages and the duplicates found, so
+	 * a resumed crawl keeps skipping the same pages
+	 *
+	 * @param output the output to write to
+	 * @throws IOException if an IO error occurs
+	 *
+	 * @see #read(DataInputStream)
+	 */
+	public synchronized void write(DataOutputStream output) throws IOException {
+		output.writeInt(exact.size());
+
+		for (var entry : exact.entrySet()) {
+			output.writeLong(entry.getKey());
+			IncrementalIndexProcessor.writeString(output, entry.getValue());
+		}
+
+		// every SimHash is in exactly one list of the first block
+		List<Fingerprint> near = new ArrayList<>();
+
+		for (var entry : blocks.entrySet()) {
+			if (entry.getKey() >>> (Long.SIZE / BLOCKS) == 0) {
+				near.addAll(entry.getValue());
+			}
+		}
+
+		output.writeInt(near.size());
+
+		for (Fingerprint fingerprint : near) {
+			IncrementalIndexProcessor.writeString(output, fingerprint.location);
+			output.writeLong(fingerprint.exact);
+			output.writeLong(fingerprint.simhash);
+		}
+
+		output.writeInt(duplicates.size());
+
+		for (var entry : duplicates.entrySet()) {
+			IncrementalIndexProcessor.writeString(output, entry.getKey());
+			IncrementalIndexProcessor.writeString(output, entry.getValue());
+		}
+	}
+
+	/**
+	 * Adds the fingerprints and duplicates written by
+	 * {@link #write(DataOutputStream)} to this detector
+	 *
+	 * @param input the input to read from
+	 * @throws IOException if the data is malformed or an IO error occurs
+	 */
+	public synchronized void read(DataInputStream input) throws IOException {
+		int count = input.readInt();
+
+		for (int i = 0; i < count; i++) {
+			long hash = input.readLong();
+			String location = IncrementalIndexProcessor.readString(input);
+
+			// pages too short for a SimHash are only compared exactly
+			exact.put(hash, location);
+			indexed.put(location, new Fingerprint(location, hash, 0));
+		}
+
+		count = input.readInt();
+
+		for (int i = 0; i < count; i++) {
+			Fingerprint fingerprint = new Fingerprint(IncrementalIndexProcessor.readString(input), input.readLong(), input.readLong());
+
+			for (int block = 0; block < BLOCKS; block++) {
+				blocks.computeIfAbsent(block(fingerprint.simhash, block), key -> new ArrayList<>()).add(fingerprint);
+			}
+
+			indexed.put(fingerprint.location, fingerprint);
+		}
+
+		count = input.readInt();
+
+		for (int i = 0; i < count; i++) {
+			String location = IncrementalIndexProcessor.readString(input);
+			duplicates.put(location, IncrementalIndexProcessor.readString(input));
+		}
+	}
+
+	/**
+	 * Adds the fingerprints and duplicates of another detector to this detector
+	 *
+	 * @param other the detector to add
+	 */
+	public void addAll(DuplicateDetector other) {
+		synchronized (other) {
+			synchronized (this) {
+				other.exact.forEach(exact::putIfAbsent);
+				other.blocks.forEach((key, list) -> blocks.computeIfAbsent(key, k -> new ArrayList<>()).addAll(list));
+				other.indexed.forEach(indexed::putIfAbsent);
+				duplicates.putAll(other.duplicates);
+			}
+		}
+	}
+
+	/**
+	 * Returns a block of a SimHash along with its number
+	 *
+	 * @param simhash the SimHash
+	 * @param block the number of the block
+	 * @return the key of the block
+	 */
+	private static long block(long simhash, int block) {
+		int bits = Long.SIZE / BLOCKS;
+		return ((long) block << bits) | ((simhash >>> (block * bits)) & ((1L << bits) - 1));
+	}
+
+	/**
+	 * Fingerprints the words of a page
+	 *
+	 * @param location the location of the page
+	 * @param local the local index of the page
+	 * @return the fingerprint
+	 */
+	private static Fingerprint fingerprint(String location, InvertedIndex local) {
+		long exact = 0;
+		int[] weights = new int[Long.SIZE];
+
+		for (String word : local.viewWords()) {
+			long hash = CrawlFrontier.hash(word);
+			int count = 0;
+
+			for (int position : local.viewPositions(word, location)) {
+				// summed so the order the words are visited in does not matter
+				exact += mix(hash ^ (position * 0x9e3779b97f4a7c15L));
+				count++;
+			}
+
+			for (int bit = 0; bit < Long.SIZE; bit++) {
+				weights[bit] += ((hash >>> bit) & 1) != 0 ? count : -count;
+			}
+		}
+
+		long simhash = 0;
+
+		for (int bit = 0; bit < Long.SIZE; bit++) {
+			if (weights[bit] > 0) {
+				simhash |= 1L << bit;
+			}
+		}
+
+		return new Fingerprint(location, exact, simhash);
+	}
+
+	/**
+	 * Spreads the bits of a number with the final mix of MurmurHash3
+	 *
+	 * @param hash the number to mix
+	 * @return the mixed number
+	 */
+	private static long mix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	/** The fingerprint of a page */
+	private static class Fingerprint {
+		/** The location of the page */
+		private final String location;
+
+		/** The exact hash of the words and positions of the page */
+		private final long exact;
+
+		/** The SimHash of the words of the page */
+		private final long simhash;
+
+		/**
+		 * Initializes a fingerprint
+		 *
+		 * @param location the location of the page
+		 * @param exact the exact hash of the words and positions of the page
+		 * @param simhash the SimHash of the words of the page
+		 */
+		public Fingerprint(String location, long exact, long simhash) {
+			this.location = location;
+			this.exact = exact;
+			this.simhash = simhash;
+		}
+	}
+}
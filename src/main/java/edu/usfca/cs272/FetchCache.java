@@ -0,0 +1,313 @@
+package edu.usfca.cs272;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A local cache of fetched web pages stored as one file per url in a
+ * directory. Each page is stored with its ETag and Last-Modified validators so
+ * a later crawl can ask the server whether the page changed, along with the
+ * links and index data found on the page so an unchanged page does not need
+ * to be cleaned and parsed again.
+ *
+ * @author Isaac Meltsner
+ */
+public class FetchCache {
+	/** Used to recognize a cache file */
+	private static final int MAGIC = 0x46434845;
+
+	/** The directory the cache files are stored in */
+	private final Path directory;
+
+	/** Logger used for this class */
+	private static final Logger log = LogManager.getLogger();
+
+	/**
+	 * Initializes the cache, creating the directory if it does not exist
+	 *
+	 * @param directory the directory to store the cache files in
+	 * @throws IOException if unable to create the directory
+	 */
+	public FetchCache(Path directory) throws IOException {
+		this.directory = directory;
+		Files.createDirectories(directory);
+	}
+
+	/**
+	 * Returns the cached page for a url. A cache file that is truncated or
+	 * malformed is treated as if the page was not cached.
+	 *
+	 * @param url the url of the page
+	 * @return the cached page or {@code null} if the page is not cached
+	 */
+	public Page get(URL url) {
+		Path path = path(url);
+
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			if (input.readInt() != MAGIC) {
+				return null;
+			}
+
+			// no length can be larger than the file itself
+			long size = Files.size(path);
+			String location = readString(input, size);
+
+			// different urls may share a file name
+			if (!location.equals(url.toString())) {
+				return null;
+			}
+
+			String etag = readString(input, size);
+			String modified = readString(input, size);
+			String html = readString(input, size);
+
+			int count = readLength(input, size);
+			List<String> links = new ArrayList<>(count);
+
+			for (int i = 0; i < count; i++) {
+				links.add(readString(input, size));
+			}
+
+			byte[] data = new byte[readLength(input, size)];
+			input.readFully(data);
+
+			return new Page(etag.isEmpty() ? null : etag, modified.isEmpty() ? null : modified, html, links, data, false);
+		}
+		catch (NoSuchFileException e) {
+			return null;
+		}
+		catch (EOFException e) {
+			log.debug("Ignoring truncated cache file {}.", path);
+			return null;
+		}
+		catch (IOException e) {
+			log.catching(Level.DEBUG, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Stores a page in the cache, replacing any earlier version. The file is
+	 * written under a temporary name first so a reader never sees part of it.
+	 *
+	 * @param url the url of the page
+	 * @param page the page to store
+	 * @throws IOException if unable to write the page
+	 */
+	public void put(URL url, Page page) throws IOException {
+		Path path = path(url);
+		Path temp = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+
+		try {
+			try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+				output.writeInt(MAGIC);
+				IncrementalIndexProcessor.writeString(output, url.toString());
+				IncrementalIndexProcessor.writeString(output, page.etag != null ? page.etag : "");
+				IncrementalIndexProcessor.writeString(output, page.modified != null ? page.modified : "");
+				IncrementalIndexProcessor.writeString(output, page.html);
+				output.writeInt(page.links.size());
+
+				for (String link : page.links) {
+					IncrementalIndexProcessor.writeString(output, link);
+				}
+
+				output.writeInt(page.data.length);
+				output.write(page.data);
+			}
+
+			try {
+				Files.move(temp, path, REPLACE_EXISTING, ATOMIC_MOVE);
+			}
+			catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, path, REPLACE_EXISTING);
+			}
+		}
+		finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Reads a count or length from a cache file
+	 *
+	 * @param input the input to read from
+	 * @param size the size of the cache file in bytes
+	 * @return the count or length
+	 * @throws IOException if the value is negative or larger than the file
+	 */
+	private static int readLength(DataInputStream input, long size) throws IOException {
+		int length = input.readInt();
+
+		if (length < 0 || length > size) {
+			throw new IOException("Malformed cache file");
+		}
+
+		return length;
+	}
+
+	/**
+	 * Reads a string written by
+	 * {@link IncrementalIndexProcessor#writeString(DataOutputStream, String)}
+	 * from a cache file
+	 *
+	 * @param input the input to read from
+	 * @param size the size of the cache file in bytes
+	 * @return the string read
+	 * @throws IOException if the length of the string is malformed
+	 */
+	private static String readString(DataInputStream input, long size) throws IOException {
+		byte[] bytes = new byte[readLength(input, size)];
+		input.readFully(bytes);
+		return new String(bytes, UTF_8);
+	}
+
+	/**
+	 * Returns the path of the cache file for a url, named after a hash of the url
+	 *
+	 * @param url the url of the page
+	 * @return the path of the cache file
+	 */
+	private Path path(URL url) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			byte[] hash = digest.digest(url.toString().getBytes(UTF_8));
+			return directory.resolve(HexFormat.of().formatHex(hash, 0, 16) + ".page");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/** A page that was fetched or read from the cache */
+	public static class Page {
+		/** The ETag validator or {@code null} if there was none */
+		private final String etag;
+
+		/** The Last-Modified validator or {@code null} if there was none */
+		private final String modified;
+
+		/** The html of the page */
+		private final String html;
+
+		/** The links found on the page */
+		private final List<String> links;
+
+		/** The encoded index data of the page */
+		private final byte[] data;
+
+		/** Whether the page was downloaded instead of confirmed unchanged */
+		private final boolean changed;
+
+		/**
+		 * Initializes the page
+		 *
+		 * @param etag the ETag validator or {@code null} if there was none
+		 * @param modified the Last-Modified validator or {@code null} if there was none
+		 * @param html the html of the page
+		 * @param links the links found on the page
+		 * @param data the encoded index data of the page
+		 * @param changed whether the page was downloaded instead of confirmed unchanged
+		 */
+		public Page(String etag, String modified, String html, List<String> links, byte[] data, boolean changed) {
+			this.etag = etag;
+			this.modified = modified;
+			this.html = html;
+			this.links = links;
+			this.data = data;
+			this.changed = changed;
+		}
+
+		/**
+		 * Returns the html of the page
+		 *
+		 * @return the html
+		 */
+		public String getHtml() {
+			return html;
+		}
+
+		/**
+		 * Returns the links found on the page when it was cached
+		 *
+		 * @return the links
+		 */
+		public List<String> getLinks() {
+			return links;
+		}
+
+		/**
+		 * Returns the encoded index data of the page when it was cached
+		 *
+		 * @return the index data
+		 *
+		 * @see IncrementalIndexProcessor#decode(byte[], InvertedIndex)
+		 */
+		public byte[] getData() {
+			return data;
+		}
+
+		/**
+		 * Returns whether the page was downloaded instead of confirmed unchanged
+		 *
+		 * @return true if the page changed or was not cached before
+		 */
+		public boolean isChanged() {
+			return changed;
+		}
+
+		/**
+		 * Returns a copy of this page with the given links and index data
+		 *
+		 * @param links the links found on the page
+		 * @param data the encoded index data of the page
+		 * @return the new page
+		 */
+		public Page withContents(List<String> links, byte[] data) {
+			return new Page(etag, modified, html, links, data, changed);
+		}
+
+		/**
+		 * Returns the request headers that ask the server to only send the page if
+		 * it changed since it was cached
+		 *
+		 * @return the conditional request headers
+		 */
+		public Map<String, String> getConditions() {
+			Map<String, String> conditions = new HashMap<>();
+
+			if (etag != null) {
+				conditions.put("If-None-Match", etag);
+			}
+
+			if (modified != null) {
+				conditions.put("If-Modified-Since", modified);
+			}
+
+			return conditions;
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package edu.usfca.cs272;
+
+import static opennlp.tools.stemmer.snowball.SnowballStemmer.ALGORITHM.ENGLISH;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import opennlp.tools.stemmer.Stemmer;
+import opennlp.tools.stemmer.snowball.SnowballStemmer;
+
+/**
+ * A fork/join version of the InvertedIndexProcessor class. Directory listing is
+ * split into subtasks, small files are batched together, and the local indexes
+ * built by each task are combined as the tasks are joined.
+ *
+ * @author Isaac Meltsner
+ */
+public class ForkJoinInvertedIndexProcessor {
+	/** Logger used for this class */
+	private static final Logger log = LogManager.getLogger();
+
+	/**
+	 * Processes path according to path type using a fork/join pool with the given
+	 * number of threads. The combined results are added to the index in one merge.
+	 *
+	 * @param path the path to process
+	 * @param index the inverted index
+	 * @param threads the number of threads to use
+	 * @throws IOException if IOError occurs
+	 * @throws NullPointerException if null pointer is found
+	 */
+	public static void process(Path path, ThreadSafeInvertedIndex index, int threads) throws IOException, NullPointerException {
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+
+		try {
+			RecursiveTask<InvertedIndex> task = Files.isDirectory(path) ? new DirectoryTask(path) : new BatchTask(List.of(path));
+			index.addAll(pool.invoke(task));
+		}
+		catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Combines the local indexes of already forked tasks into a single index
+	 *
+	 * @param tasks the tasks to join
+	 * @return the combined index
+	 */
+	private static InvertedIndex combine(List<RecursiveTask<InvertedIndex>> tasks) {
+		InvertedIndex combined = null;
+
+		for (RecursiveTask<InvertedIndex> task : tasks) {
+			InvertedIndex result = task.join();
+
+			if (combined == null) {
+				combined = result;
+			}
+			else {
+				combined.addAll(result);
+			}
+		}
+
+		return combined != null ? combined : new InvertedIndex();
+	}
+
+	/** Lists a single directory, forking a task for each subdirectory and batch of files */
+	private static class DirectoryTask extends RecursiveTask<InvertedIndex> {
+		/** Not used */
+		private static final long serialVersionUID = 1L;
+
+		/** The directory to list */
+		private final Path path;
+
+		/**
+		 * Initializes the directory to list
+		 *
+		 * @param path the path of a directory
+		 */
+		private DirectoryTask(Path path) {
+			this.path = path;
+		}
+
+		@Override
+		protected InvertedIndex compute() {
+			List<RecursiveTask<InvertedIndex>> tasks = new ArrayList<>();
+			List<Path> batch = new ArrayList<>();
+			long batchBytes = 0;
+
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+				for (Path newPath : stream) {
+					if (Files.isDirectory(newPath)) {
+						tasks.add(new DirectoryTask(newPath));
+						tasks.get(tasks.size() - 1).fork();
+					}
+					else if (InvertedIndexProcessor.isIndexable(newPath)) {
+						batch.add(newPath);
+						batchBytes += Files.size(newPath);
+
+						if (batchBytes >= QueuedInvertedIndexProcessor.BATCH_BYTES) {
+							tasks.add(new BatchTask(batch));
+							tasks.get(tasks.size() - 1).fork();
+							batch = new ArrayList<>();
+							batchBytes = 0;
+						}
+					}
+				}
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+
+			// process the last partial batch on this thread while the others run
+			InvertedIndex local = new BatchTask(batch).compute();
+			local.addAll(combine(tasks));
+			return local;
+		}
+	}
+
+	/** Processes a batch of files into a single local index */
+	private static class BatchTask extends RecursiveTask<InvertedIndex> {
+		/** Not used */
+		private static final long serialVersionUID = 1L;
+
+		/** The paths of the files to process */
+		private final List<Path> paths;
+
+		/**
+		 * Initializes the files to process
+		 *
+		 * @param paths the paths of the files
+		 */
+		private BatchTask(List<Path> paths) {
+			this.paths = paths;
+		}
+
+		@Override
+		protected InvertedIndex compute() {
+			InvertedIndex local = new InvertedIndex();
+			Stemmer stemmer = new SnowballStemmer(ENGLISH);
+
+			for (Path path : paths) {
+				try {
+					InvertedIndexProcessor.processFile(path, local, stemmer);
+				}
+				catch (IOException e) {
+					// the rest of the batch is still indexed without the partly read file
+					local.removeLocation(path.toString());
+					log.warn("Unable to process file at path: {}", path);
+					log.catching(Level.DEBUG, e);
+				}
+			}
+
+			return local;
+		}
+	}
+}
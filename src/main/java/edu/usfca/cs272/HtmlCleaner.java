@@ -133,14 +133,39 @@ public class HtmlCleaner {
 	 *
 	 * @see #stripBlockElements(String)
 	 * @see #stripTags(String)
+	 * @see #stripHtml(String, StringBuilder)
 	 *
 	 * @param html the HTML to strip tags and elements from
 	 * @return text clean of any HTML tags and certain block elements
 	 */
 	public static String stripHtml(String html) {
-		html = stripBlockElements(html);
-		html = stripTags(html);
-		html = stripEntities(html);
-		return html;
+		StringBuilder text = new StringBuilder(html.length());
+		stripHtml(html, text);
+		return text.toString();
+	}
+
+	/**
+	 * Removes all HTML tags, certain block elements, and entities from the
+	 * provided html in a single pass, appending the text to a builder that can
+	 * be reused between pages. The text is the same as removing comments, block
+	 * elements, tags, and entities one after another. Html that the single pass
+	 * would clean differently, like a comment that is never closed, is cleaned
+	 * one step at a time instead.
+	 *
+	 * @param html the HTML to strip tags and elements from
+	 * @param text the builder to append the text to
+	 *
+	 * @see HtmlTokenizer#tokenize(java.net.URL, String, HtmlTokenizer.Handler)
+	 */
+	public static void stripHtml(String html, StringBuilder text) {
+		int start = text.length();
+
+		if (!HtmlTokenizer.tokenize(null, html, text::append)) {
+			text.setLength(start);
+			html = stripBlockElements(html);
+			html = stripTags(html);
+			html = stripEntities(html);
+			text.append(html);
+		}
 	}
 }
\ No newline at end of file
@@ -1,15 +1,39 @@
 package edu.usfca.cs272;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.io.PushbackInputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.net.MalformedURLException;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.channels.UnresolvedAddressException;
+import java.nio.charset.CharacterCodingException;
 import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
 
 /**
  * A specialized version of {@link HttpsFetcher} that follows redirects and
@@ -21,6 +45,134 @@ import java.util.Map;
  * @version Fall 2023
  */
 public class HtmlFetcher {
+	/** The content encodings that can be decoded, sent with each request */
+	public static final String ACCEPT_ENCODING = "gzip, deflate";
+
+	/** Default time in milliseconds a request and its response may take in total */
+	public static final long DEADLINE = 60000;
+
+	/** Default maximum number of bytes of content received for a page */
+	public static final long MAX_BODY = 10 * 1024 * 1024;
+
+	/** The time in milliseconds a request and its response may take in total, or 0 for no limit */
+	private static volatile long deadline = DEADLINE;
+
+	/** The maximum number of bytes of content received for a page, or 0 for no limit */
+	private static volatile long maxBody = MAX_BODY;
+
+	/** Closes the connections of requests that take longer than the deadline */
+	private static final ScheduledThreadPoolExecutor timer = createTimer();
+
+	/** The total bytes of content received before decoding */
+	private static final LongAdder received = new LongAdder();
+
+	/** The total bytes of content after decoding */
+	private static final LongAdder decoded = new LongAdder();
+
+	/** The number of responses received with each status code */
+	private static final ConcurrentHashMap<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+
+	/** Handles the html of a page as it is read */
+	@FunctionalInterface
+	public static interface PageHandler {
+		/**
+		 * Handles the html of a page. The reader must not be closed.
+		 *
+		 * @param html the reader of the html
+		 * @throws IOException if unable to read the html
+		 */
+		public void accept(Reader html) throws IOException;
+	}
+
+	/** Thrown when the content of a page is larger than the maximum body size */
+	public static class ContentTooLargeException extends IOException {
+		/** Unique serial version identifier */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Initializes the exception
+		 *
+		 * @param maxBody the maximum number of bytes of content
+		 */
+		public ContentTooLargeException(long maxBody) {
+			super("Content is larger than " + maxBody + " bytes");
+		}
+	}
+
+	/**
+	 * Limits how long each request may take and how much content is received for
+	 * each page. The timeouts of the connections themselves are set by
+	 * {@link HttpsFetcher#setTimeouts(int, int)}.
+	 *
+	 * @param deadline the time in milliseconds a request and its response may take
+	 *   in total, or 0 for no limit
+	 * @param maxBody the maximum number of bytes of content received for a page,
+	 *   both before and after it is decompressed, or 0 for no limit
+	 */
+	public static void setLimits(long deadline, long maxBody) {
+		HtmlFetcher.deadline = Math.max(0, deadline);
+		HtmlFetcher.maxBody = Math.max(0, maxBody);
+	}
+
+	/**
+	 * Returns the time in milliseconds a request and its response may take in total
+	 *
+	 * @return the deadline, or 0 if there is none
+	 */
+	public static long getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * Returns the maximum number of bytes of content received for a page
+	 *
+	 * @return the maximum body size, or 0 if there is none
+	 */
+	public static long getMaxBody() {
+		return maxBody;
+	}
+
+	/**
+	 * Returns whether a fetch that failed with an exception may succeed when it is
+	 * tried again later, such as after a timeout or a dropped connection. Unknown
+	 * hosts, malformed content, and pages that are too large fail every time.
+	 *
+	 * @param error the exception, which may be wrapped by a future
+	 * @return true if the fetch may be tried again
+	 */
+	public static boolean isTransient(Throwable error) {
+		while ((error instanceof CompletionException || error instanceof UncheckedIOException) && error.getCause() != null) {
+			error = error.getCause();
+		}
+
+		if (!(error instanceof IOException) && !(error instanceof TimeoutException)) {
+			return false;
+		}
+
+		// the http client reports unknown hosts as failed connections
+		for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+			if (cause instanceof UnknownHostException || cause instanceof UnresolvedAddressException) {
+				return false;
+			}
+		}
+
+		return !(error instanceof MalformedURLException)
+				&& !(error instanceof ContentTooLargeException)
+				&& !(error instanceof ZipException)
+				&& !(error instanceof CharacterCodingException);
+	}
+
+	/**
+	 * Returns whether a response with the status code may succeed when the
+	 * request is sent again later, such as when the server is overloaded
+	 *
+	 * @param statusCode the HTTP status code
+	 * @return true if the request may be sent again
+	 */
+	public static boolean isTransient(int statusCode) {
+		return statusCode == 408 || statusCode == 429 || statusCode == 500 || statusCode == 502 || statusCode == 503 || statusCode == 504;
+	}
+
 	/**
 	 * Returns {@code true} if and only if there is a "Content-Type" header and the
 	 * first value of that header starts with the value "text/html"
@@ -120,6 +272,416 @@ public class HtmlFetcher {
 		return html;
 	}
 
+	/**
+	 * Fetches the resource at the URL like {@link #fetch(URL, int)}, but asks the
+	 * server to only send the page if it changed since it was cached. The
+	 * validators of the cached page are sent with every redirect followed, since
+	 * they belong to the page at the end of the redirects.
+	 *
+	 * @param url the url to fetch
+	 * @param redirects the number of times to follow redirects
+	 * @param cached the cached page or {@code null} if the page is not cached
+	 * @return the downloaded page, the cached page if it has not changed, or
+	 *   {@code null} if unable to fetch the resource or the resource is not html
+	 *
+	 * @see #fetch(URL, int, FetchCache.Page, ConnectionPool)
+	 */
+	public static FetchCache.Page fetch(URL url, int redirects, FetchCache.Page cached) {
+		return fetch(url, redirects, cached, null);
+	}
+
+	/**
+	 * Fetches the resource at the URL like {@link #fetch(URL, int, FetchCache.Page)},
+	 * but reuses the open connections of a pool when possible. The end of each
+	 * response is found using its headers instead of waiting for the server to
+	 * close the connection, and the connection is returned to the pool afterwards.
+	 *
+	 * @param url the url to fetch
+	 * @param redirects the number of times to follow redirects
+	 * @param cached the cached page or {@code null} if the page is not cached
+	 * @param pool the connection pool or {@code null} to close every connection
+	 * @return the downloaded page, the cached page if it has not changed, or
+	 *   {@code null} if unable to fetch the resource or the resource is not html
+	 *
+	 * @see HttpsFetcher#printGetRequest(PrintWriter, URL, Map, boolean)
+	 * @see HttpsFetcher#readContent(java.io.InputStream, Map)
+	 */
+	public static FetchCache.Page fetch(URL url, int redirects, FetchCache.Page cached, ConnectionPool pool) {
+		try {
+			return fetchPage(url, redirects, cached, pool);
+		}
+		catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Fetches the resource at the URL like
+	 * {@link #fetch(URL, int, FetchCache.Page, ConnectionPool)}, but throws an
+	 * exception instead of returning {@code null} if the fetch failed in a way
+	 * that may succeed when it is tried again later.
+	 *
+	 * @param url the url to fetch
+	 * @param redirects the number of times to follow redirects
+	 * @param cached the cached page or {@code null} if the page is not cached
+	 * @param pool the connection pool or {@code null} to close every connection
+	 * @return the downloaded page, the cached page if it has not changed, or
+	 *   {@code null} if the resource is not html or will never be fetched
+	 * @throws IOException if the connection failed or timed out, or the server
+	 *   is temporarily unable to respond
+	 *
+	 * @see #isTransient(Throwable)
+	 * @see #isTransient(int)
+	 */
+	public static FetchCache.Page fetchPage(URL url, int redirects, FetchCache.Page cached, ConnectionPool pool) throws IOException {
+		return fetch(url, redirects, cached, pool, null);
+	}
+
+	/**
+	 * Fetches the resource at the URL like
+	 * {@link #fetch(URL, int, FetchCache.Page, ConnectionPool)}, but passes the
+	 * html to the handler as it arrives instead of reading the whole page first.
+	 * If the handler stops reading before the end of the page, the connection is
+	 * closed instead of being returned to the pool.
+	 *
+	 * @param url the url to fetch
+	 * @param redirects the number of times to follow redirects
+	 * @param pool the connection pool or {@code null} to close every connection
+	 * @param handler the handler for the html of the page
+	 * @return {@code true} if the html was passed to the handler, or
+	 *   {@code false} if unable to fetch the resource or the resource is not html
+	 */
+	public static boolean fetch(URL url, int redirects, ConnectionPool pool, PageHandler handler) {
+		try {
+			return streamPage(url, redirects, pool, handler);
+		}
+		catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Fetches the resource at the URL like
+	 * {@link #fetch(URL, int, ConnectionPool, PageHandler)}, but throws an
+	 * exception instead of returning {@code false} if the fetch failed in a way
+	 * that may succeed when it is tried again later. The handler may have been
+	 * passed part of the html already.
+	 *
+	 * @param url the url to fetch
+	 * @param redirects the number of times to follow redirects
+	 * @param pool the connection pool or {@code null} to close every connection
+	 * @param handler the handler for the html of the page
+	 * @return {@code true} if the html was passed to the handler, or
+	 *   {@code false} if the resource is not html or will never be fetched
+	 * @throws IOException if the connection failed or timed out, or the server
+	 *   is temporarily unable to respond
+	 *
+	 * @see #isTransient(Throwable)
+	 * @see #isTransient(int)
+	 */
+	public static boolean streamPage(URL url, int redirects, ConnectionPool pool, PageHandler handler) throws IOException {
+		return fetch(url, redirects, null, pool, handler) != null;
+	}
+
+	/**
+	 * Fetches the resource at the URL, either reading the whole page or passing
+	 * it to a handler as it arrives. The connection is closed if the request and
+	 * response take longer than the deadline.
+	 *
+	 * @param url the url to fetch
+	 * @param redirects the number of times to follow redirects
+	 * @param cached the cached page or {@code null} if the page is not cached
+	 * @param pool the connection pool or {@code null} to close every connection
+	 * @param handler the handler for the html or {@code null} to read the whole page
+	 * @return the downloaded page, which has no html if it was passed to the
+	 *   handler, the cached page if it has not changed, or {@code null} if the
+	 *   resource is not html or will never be fetched
+	 * @throws IOException if the fetch failed in a way that may succeed later
+	 */
+	private static FetchCache.Page fetch(URL url, int redirects, FetchCache.Page cached, ConnectionPool pool, PageHandler handler) throws IOException {
+		Map<String, String> conditions = new HashMap<>(cached != null ? cached.getConditions() : Map.of());
+		conditions.put("Accept-Encoding", ACCEPT_ENCODING);
+		Map<String, List<String>> headers = null;
+		byte[] content = null;
+		boolean handled = false;
+		Watchdog watchdog = new Watchdog(deadline);
+
+		try {
+			ConnectionPool.Connection connection = pool != null ? pool.borrow(url) : ConnectionPool.open(url);
+			watchdog.watch(connection);
+
+			try {
+				headers = request(connection, url, conditions, pool != null);
+			}
+			catch (IOException e) {
+				connection.close();
+
+				// the server may have closed an idle connection, so try a new one once
+				if (!connection.isReused() || watchdog.isExpired()) {
+					throw e;
+				}
+
+				connection = pool != null ? pool.connect(url) : ConnectionPool.open(url);
+				watchdog.watch(connection);
+				headers = request(connection, url, conditions, pool != null);
+			}
+
+			int statusCode = getStatusCode(headers);
+			countStatus(statusCode);
+
+			boolean reusable = pool != null && HttpsFetcher.isDelimited(headers);
+			boolean complete = false;
+
+			try {
+				if (isHtml(headers) && statusCode == 200 && handler != null) {
+					InputStream stream = limit(HttpsFetcher.openContent(connection.getInput(), headers));
+
+					try (Reader reader = openReader(stream, HttpsFetcher.getHeader(headers, "Content-Encoding"))) {
+						handler.accept(reader);
+					}
+
+					// anything left unread would be mistaken for the next response
+					reusable = reusable && stream.read() < 0;
+					handled = true;
+				}
+				else if (isHtml(headers) && (statusCode == 200 || statusCode >= 300 && statusCode <= 399)) {
+					content = limit(HttpsFetcher.openContent(connection.getInput(), headers)).readAllBytes();
+				}
+				else if (statusCode != 304) {
+					// the rest of the response is not needed
+					reusable = false;
+				}
+
+				complete = true;
+			}
+			finally {
+				// a connection closed by the watchdog may not be used again
+				boolean inTime = watchdog.cancel();
+
+				if (pool != null) {
+					pool.release(connection, reusable && complete && inTime);
+				}
+				else {
+					connection.close();
+				}
+			}
+		}
+		catch (NumberFormatException e) {
+			return null;
+		}
+		catch (IOException e) {
+			if (watchdog.isExpired()) {
+				throw new SocketTimeoutException("Exceeded the deadline of " + watchdog.deadline + " ms: " + url);
+			}
+
+			if (!isTransient(e)) {
+				return null;
+			}
+
+			throw e;
+		}
+		finally {
+			watchdog.cancel();
+		}
+
+		int statusCode = getStatusCode(headers);
+
+		if (isTransient(statusCode)) {
+			throw new IOException("Server responded with status " + statusCode + ": " + url);
+		}
+
+		if (statusCode == 304 && cached != null) {
+			return cached;
+		}
+
+		if (handled) {
+			return new FetchCache.Page(HttpsFetcher.getHeader(headers, "ETag"), HttpsFetcher.getHeader(headers, "Last-Modified"), null, List.of(), new byte[0], true);
+		}
+
+		if (content != null && statusCode == 200) {
+			try {
+				String html = decode(content, HttpsFetcher.getHeader(headers, "Content-Encoding"));
+				return new FetchCache.Page(HttpsFetcher.getHeader(headers, "ETag"), HttpsFetcher.getHeader(headers, "Last-Modified"), html, List.of(), new byte[0], true);
+			}
+			catch (IOException e) {
+				return null;
+			}
+		}
+
+		String redirect = getRedirect(headers);
+
+		if (content != null && redirect != null && redirects > 0) {
+			try {
+				return fetch(new URL(url, redirect), redirects - 1, cached, pool, handler);
+			}
+			catch (MalformedURLException e) {
+				return null;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Limits the content of a response to the maximum body size
+	 *
+	 * @param content the content of the response
+	 * @return the limited content, which throws a
+	 *   {@link ContentTooLargeException} once it is exceeded
+	 */
+	private static InputStream limit(InputStream content) {
+		long limit = maxBody;
+		return limit > 0 ? new CappedInputStream(content, limit) : content;
+	}
+
+	/**
+	 * Decodes the content of a response sent with a gzip, deflate, or no content
+	 * encoding, and joins its lines the same way as {@link #fetch(URL, int)}. The
+	 * number of bytes before and after decoding are added to the totals.
+	 *
+	 * @param content the content of the response
+	 * @param encoding the "Content-Encoding" header or {@code null} if there was none
+	 * @return the decoded html
+	 * @throws IOException if the encoding is not supported, the content is
+	 *   malformed, or the decoded content is too large
+	 *
+	 * @see #getReceivedBytes()
+	 * @see #getDecodedBytes()
+	 */
+	public static String decode(byte[] content, String encoding) throws IOException {
+		try (BufferedReader reader = new BufferedReader(openReader(new ByteArrayInputStream(content), encoding))) {
+			return String.join("\n", reader.lines().toList());
+		}
+		catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Returns a reader of the html in the content of a response sent with a gzip,
+	 * deflate, or no content encoding. The content is decoded as it is read, and
+	 * the number of bytes before and after decoding are added to the totals. The
+	 * decoded content is limited to the maximum body size as well, so a small
+	 * compressed body cannot expand without bound.
+	 *
+	 * @param content the content of the response
+	 * @param encoding the "Content-Encoding" header or {@code null} if there was none
+	 * @return the reader of the decoded html, which throws a
+	 *   {@link ContentTooLargeException} once the decoded content is too large
+	 * @throws IOException if the encoding is not supported or the content is malformed
+	 *
+	 * @see #getReceivedBytes()
+	 * @see #getDecodedBytes()
+	 */
+	public static Reader openReader(InputStream content, String encoding) throws IOException {
+		String name = encoding != null ? encoding.strip().toLowerCase() : "identity";
+		InputStream input = new CountingInputStream(content, received);
+
+		if (name.equals("gzip") || name.equals("x-gzip")) {
+			input = new GZIPInputStream(input);
+		}
+		else if (name.equals("deflate")) {
+			PushbackInputStream peek = new PushbackInputStream(input, 2);
+			byte[] start = peek.readNBytes(2);
+			peek.unread(start);
+
+			// some servers send raw deflate data without the zlib header
+			boolean zlib = start.length == 2 && (start[0] & 0x0F) == 8 && ((start[0] & 0xFF) << 8 | start[1] & 0xFF) % 31 == 0;
+			Inflater inflater = new Inflater(!zlib);
+
+			input = new InflaterInputStream(peek, inflater) {
+				@Override
+				public void close() throws IOException {
+					try {
+						super.close();
+					}
+					finally {
+						inflater.end();
+					}
+				}
+			};
+		}
+		else if (!name.equals("identity") && !name.isEmpty()) {
+			throw new IOException("Unsupported content encoding: " + encoding);
+		}
+
+		return new InputStreamReader(new CountingInputStream(limit(input), decoded), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Returns the total bytes of content received by the fetchers before decoding
+	 *
+	 * @return the bytes received
+	 */
+	public static long getReceivedBytes() {
+		return received.sum();
+	}
+
+	/**
+	 * Returns the total bytes of content after decoding
+	 *
+	 * @return the bytes decoded
+	 */
+	public static long getDecodedBytes() {
+		return decoded.sum();
+	}
+
+	/**
+	 * Counts a response with a status code towards the totals of the fetchers
+	 *
+	 * @param statusCode the HTTP status code
+	 *
+	 * @see #getStatusCounts()
+	 */
+	public static void countStatus(int statusCode) {
+		statuses.computeIfAbsent(statusCode, code -> new LongAdder()).increment();
+	}
+
+	/**
+	 * Returns the total number of responses received by the fetchers with each
+	 * status code, including the redirects followed
+	 *
+	 * @return the number of responses by status code
+	 */
+	public static Map<Integer, Long> getStatusCounts() {
+		Map<Integer, Long> counts = new TreeMap<>();
+		statuses.forEach((code, count) -> counts.put(code, count.sum()));
+		return counts;
+	}
+
+	/**
+	 * Writes a GET request to a connection and reads the headers of the response
+	 *
+	 * @param connection the connection to use
+	 * @param url the url to fetch
+	 * @param conditions the conditional request headers to send
+	 * @param keepAlive whether to ask the server to keep the connection open
+	 * @return the headers of the response
+	 * @throws IOException if unable to write the request or read the headers
+	 */
+	private static Map<String, List<String>> request(ConnectionPool.Connection connection, URL url, Map<String, String> conditions, boolean keepAlive) throws IOException {
+		HttpsFetcher.printGetRequest(connection.getWriter(), url, conditions, keepAlive);
+		return HttpsFetcher.getHeaderFields(connection.getInput());
+	}
+
+	/**
+	 * Creates the timer used to close connections after the deadline, whose
+	 * thread does not keep the program running
+	 *
+	 * @return the timer
+	 */
+	private static ScheduledThreadPoolExecutor createTimer() {
+		ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, task -> {
+			Thread thread = new Thread(task, "fetch-deadline");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		// requests finish long before their deadline, so their checks are not kept around
+		timer.setRemoveOnCancelPolicy(true);
+		return timer;
+	}
+
 	/**
 	 * Converts the {@link String} url into a {@link URL} object and then calls
 	 * {@link #fetch(URL, int)}.
@@ -164,4 +726,169 @@ public class HtmlFetcher {
 	public static String fetch(URL url) {
 		return fetch(url, 0);
 	}
+
+	/** Adds the bytes read through it to a running total */
+	private static class CountingInputStream extends FilterInputStream {
+		/** The total to add to */
+		private final LongAdder total;
+
+		/**
+		 * Initializes the stream
+		 *
+		 * @param input the stream to count
+		 * @param total the total to add to
+		 */
+		private CountingInputStream(InputStream input, LongAdder total) {
+			super(input);
+			this.total = total;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int read = super.read();
+			total.add(read >= 0 ? 1 : 0);
+			return read;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			int read = super.read(buffer, offset, length);
+			total.add(Math.max(read, 0));
+			return read;
+		}
+	}
+
+	/** Closes the connection of a request that takes longer than the deadline */
+	private static class Watchdog implements Runnable {
+		/** The deadline in milliseconds, or 0 for no limit */
+		private final long deadline;
+
+		/** Whether the request finished or the deadline passed, whichever was first */
+		private final AtomicBoolean done;
+
+		/** Whether the deadline passed before the request finished */
+		private volatile boolean expired;
+
+		/** The connection of the request */
+		private volatile ConnectionPool.Connection connection;
+
+		/** The scheduled check of the deadline, or null if there is no deadline */
+		private final ScheduledFuture<?> check;
+
+		/**
+		 * Initializes the watchdog and starts the clock
+		 *
+		 * @param deadline the deadline in milliseconds, or 0 for no limit
+		 */
+		private Watchdog(long deadline) {
+			this.deadline = deadline;
+			this.done = new AtomicBoolean(false);
+			this.expired = false;
+			this.check = deadline > 0 ? timer.schedule(this, deadline, TimeUnit.MILLISECONDS) : null;
+		}
+
+		/**
+		 * Sets the connection to close if the deadline passes
+		 *
+		 * @param connection the connection of the request
+		 */
+		private void watch(ConnectionPool.Connection connection) {
+			this.connection = connection;
+
+			if (expired) {
+				connection.close();
+			}
+		}
+
+		@Override
+		public void run() {
+			if (done.compareAndSet(false, true)) {
+				expired = true;
+				ConnectionPool.Connection connection = this.connection;
+
+				if (connection != null) {
+					connection.close();
+				}
+			}
+		}
+
+		/**
+		 * Stops the clock once the request finished
+		 *
+		 * @return true if the request finished before the deadline, false if the
+		 *   connection was closed
+		 */
+		private boolean cancel() {
+			if (done.compareAndSet(false, true) && check != null) {
+				check.cancel(false);
+			}
+
+			return !expired;
+		}
+
+		/**
+		 * Returns whether the deadline passed before the request finished
+		 *
+		 * @return true if the connection was closed
+		 */
+		private boolean isExpired() {
+			return expired;
+		}
+	}
+
+	/** Fails once more than the maximum body size was read */
+	private static class CappedInputStream extends FilterInputStream {
+		/** The maximum number of bytes */
+		private final long limit;
+
+		/** The number of bytes read */
+		private long count;
+
+		/**
+		 * Initializes the stream
+		 *
+		 * @param input the content to limit
+		 * @param limit the maximum number of bytes
+		 */
+		private CappedInputStream(InputStream input, long limit) {
+			super(input);
+			this.limit = limit;
+			this.count = 0;
+		}
+
+		/**
+		 * Counts the bytes read and fails if there were too many
+		 *
+		 * @param read the number of bytes read, or -1 at the end of the content
+		 * @return the number of bytes read
+		 * @throws ContentTooLargeException if the content is too large
+		 */
+		private int count(int read) throws ContentTooLargeException {
+			count += Math.max(read, 0);
+
+			if (count > limit) {
+				throw new ContentTooLargeException(limit);
+			}
+
+			return read;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int read = super.read();
+			count(read >= 0 ? 1 : -1);
+			return read;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			// one byte past the limit is enough to know the content is too large
+			return count(super.read(buffer, offset, (int) Math.min(length, limit - count + 1)));
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+	}
 }
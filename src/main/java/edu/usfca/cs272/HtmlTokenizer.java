@@ -0,0 +1,720 @@
+package edu.usfca.cs272;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.text.StringEscapeUtils;
+
+/**
+ * Reads html from a stream in a single pass, passing the visible text and the
+ * links found to a handler as they are read instead of building the cleaned
+ * page as a string. Only a single tag or entity is held in memory at a time.
+ *
+ * <p>The html is read through layers that each remove one kind of markup, in
+ * the same order as {@link HtmlCleaner#stripHtml(String)}: comments, then block
+ * elements, then tags, then entities. Each layer can put characters back to be
+ * read again when it looked ahead for markup that was not there.
+ *
+ * <p>For valid HTML the text and links are the same as removing comments,
+ * block elements, tags, and entities with regular expressions. Since the rest
+ * of the page is not known in advance, a comment or block element that is
+ * never closed removes the rest of the page, a block element only ends with
+ * its own closing tag, and links are only found in anchor tags without a
+ * {@code >} inside an attribute. The tokenizer reports whether it found any
+ * markup like this, so the caller can fall back to the regular expressions.
+ *
+ * @see HtmlCleaner
+ * @see LinkFinder
+ *
+ * @author Isaac Meltsner
+ */
+public class HtmlTokenizer {
+	/** Default maximum number of characters read from a page */
+	public static final int MAX_PAGE = 10 * 1024 * 1024;
+
+	/** Longest tag that is removed, anything longer is kept as text */
+	private static final int MAX_TAG = 64 * 1024;
+
+	/** Longest entity that is decoded, anything longer is kept as text */
+	private static final int MAX_ENTITY = 32;
+
+	/** The elements removed along with everything inside them, in the order the regular expressions remove them */
+	private static final List<String> BLOCK_ELEMENTS = List.of("head", "style", "script", "noscript", "iframe", "svg");
+
+	/** Longest name of a block element */
+	private static final int MAX_NAME = 8;
+
+	/** Matches a word boundary after the first character, the same as {@link HtmlCleaner#stripElement(String, String)} */
+	private static final Pattern BOUNDARY = Pattern.compile("(?s).\\b");
+
+	/** Matches the start of the href attribute value of an anchor tag */
+	private static final Pattern HREF = Pattern.compile("(?i)href\\s*=\\s*\"");
+
+	/** The layer of the html as it is read */
+	private static final int RAW = 0;
+
+	/** The layer of the html without comments */
+	private static final int UNCOMMENTED = 1;
+
+	/** The layer of the html without comments or block elements */
+	private static final int CONTENT = 2;
+
+	/** The layer of the text without tags */
+	private static final int TEXT = 3;
+
+	/** Handles the text and links of a page */
+	public static interface Handler {
+		/**
+		 * Handles the next character of visible text
+		 *
+		 * @param c the character
+		 */
+		public void text(char c);
+
+		/**
+		 * Handles an HTTP(S) link found in an anchor tag. Links are ignored unless
+		 * this is overridden.
+		 *
+		 * @param url the absolute normalized url of the link
+		 */
+		public default void link(URL url) {
+		}
+	}
+
+	/** The url of the page, used to resolve relative links */
+	private final URL base;
+
+	/** The html to read */
+	private final Reader reader;
+
+	/** The handler for the text and links */
+	private final Handler handler;
+
+	/** The number of characters that may still be read */
+	private long remaining;
+
+	/** The characters read from the reader but not used yet */
+	private final char[] chunk;
+
+	/** The index of the next character to use in the chunk */
+	private int offset;
+
+	/** The number of characters in the chunk */
+	private int limit;
+
+	/** Characters to read again for each layer, with the next one last */
+	private final StringBuilder[] pushback;
+
+	/** The comment opening being read */
+	private final StringBuilder comment;
+
+	/** The element name or closing tag being read */
+	private final StringBuilder element;
+
+	/** The tag being read */
+	private final StringBuilder tag;
+
+	/** The entity being read */
+	private final StringBuilder entity;
+
+	/** A possible unknown entity in the decoded text, which is removed if it ends */
+	private final StringBuilder unknown;
+
+	/** Whether the page so far is read the same as with the regular expressions */
+	private boolean exact;
+
+	/** The number of name characters since an opening bracket in the content, or -1 if not in a name */
+	private int opening;
+
+	/**
+	 * Initializes the tokenizer
+	 *
+	 * @param base the url of the page
+	 * @param reader the html to read
+	 * @param maxChars the maximum number of characters to read
+	 * @param handler the handler for the text and links
+	 */
+	private HtmlTokenizer(URL base, Reader reader, long maxChars, Handler handler) {
+		this.base = base;
+		this.reader = reader;
+		this.handler = handler;
+		this.remaining = maxChars;
+		this.chunk = new char[8192];
+		this.offset = 0;
+		this.limit = 0;
+		this.pushback = new StringBuilder[] { new StringBuilder(), new StringBuilder(), new StringBuilder(), new StringBuilder() };
+		this.comment = new StringBuilder();
+		this.element = new StringBuilder();
+		this.tag = new StringBuilder();
+		this.entity = new StringBuilder();
+		this.unknown = new StringBuilder();
+		this.exact = true;
+		this.opening = -1;
+	}
+
+	/**
+	 * Reads the html of a page, passing its visible text and links to the handler.
+	 * Comments and block elements are removed, tags are removed, and entities are
+	 * decoded. Reading stops early if the page is longer than the maximum.
+	 *
+	 * @param base the url of the page, used to resolve relative links, or
+	 *   {@code null} to ignore links
+	 * @param reader the html to read
+	 * @param maxChars the maximum number of characters to read
+	 * @param handler the handler for the text and links
+	 * @return {@code true} if the whole page was read the same as with the regular
+	 *   expressions, {@code false} if the page was too long or had markup that is
+	 *   removed differently
+	 * @throws IOException if unable to read the html
+	 */
+	public static boolean tokenize(URL base, Reader reader, long maxChars, Handler handler) throws IOException {
+		HtmlTokenizer tokenizer = new HtmlTokenizer(base, reader, maxChars, handler);
+		tokenizer.run();
+		return tokenizer.exact;
+	}
+
+	/**
+	 * Reads the html of a page that is already in memory, passing its visible
+	 * text and links to the handler
+	 *
+	 * @param base the url of the page, used to resolve relative links, or
+	 *   {@code null} to ignore links
+	 * @param html the html to read
+	 * @param handler the handler for the text and links
+	 * @return {@code true} if the page was read the same as with the regular
+	 *   expressions, {@code false} if the page had markup that is removed
+	 *   differently
+	 *
+	 * @see #tokenize(URL, Reader, long, Handler)
+	 */
+	public static boolean tokenize(URL base, String html, Handler handler) {
+		try {
+			return tokenize(base, new StringReader(html), Long.MAX_VALUE, handler);
+		}
+		catch (IOException e) {
+			// a string reader does not throw
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Cleans the html of a page and finds its links in a single pass, appending
+	 * the text to a builder and adding the links to a collection. The text and
+	 * links are the same as {@link HtmlCleaner#stripHtml(String)} and
+	 * {@link LinkFinder#findLinks(URL, String, Collection)} of the html without
+	 * its block elements. Html that the single pass would read differently is
+	 * cleaned and searched for links with the regular expressions instead.
+	 *
+	 * @param base the url of the page, used to resolve relative links
+	 * @param html the html of the page
+	 * @param text the builder to append the text to
+	 * @param links the collection to add the links to
+	 *
+	 * @see HtmlCleaner#stripBlockElements(String)
+	 */
+	public static void extract(URL base, String html, StringBuilder text, Collection<URL> links) {
+		int start = text.length();
+		List<URL> found = new ArrayList<>();
+
+		Handler handler = new Handler() {
+			@Override
+			public void text(char c) {
+				text.append(c);
+			}
+
+			@Override
+			public void link(URL url) {
+				found.add(url);
+			}
+		};
+
+		if (tokenize(base, html, handler)) {
+			links.addAll(found);
+			return;
+		}
+
+		text.setLength(start);
+		html = HtmlCleaner.stripBlockElements(html);
+		LinkFinder.findLinks(base, html, links);
+
+		html = HtmlCleaner.stripTags(html);
+		html = HtmlCleaner.stripEntities(html);
+		text.append(html);
+	}
+
+	/**
+	 * Reads the whole page, decoding the entities in the text
+	 *
+	 * @throws IOException if unable to read the html
+	 */
+	private void run() throws IOException {
+		int c;
+
+		while ((c = next(TEXT)) >= 0) {
+			if (c == '&') {
+				readEntity();
+			}
+			else {
+				decoded((char) c);
+			}
+		}
+
+		flushUnknown();
+	}
+
+	/**
+	 * Returns the next character of a layer, starting with any characters put
+	 * back to be read again
+	 *
+	 * @param layer the layer to read
+	 * @return the next character or -1 at the end of the page
+	 * @throws IOException if unable to read the html
+	 */
+	private int next(int layer) throws IOException {
+		StringBuilder chars = pushback[layer];
+		int last = chars.length() - 1;
+
+		if (last >= 0) {
+			char c = chars.charAt(last);
+			chars.setLength(last);
+			return c;
+		}
+
+		return switch (layer) {
+			case RAW -> readRaw();
+			case UNCOMMENTED -> readUncommented();
+			case CONTENT -> readContent();
+			default -> readText();
+		};
+	}
+
+	/**
+	 * Puts characters back to be the next ones read from a layer
+	 *
+	 * @param layer the layer to put the characters back into
+	 * @param text the characters to read again
+	 * @param start the index of the first character to read again
+	 */
+	private void unread(int layer, CharSequence text, int start) {
+		for (int i = text.length() - 1; i >= start; i--) {
+			pushback[layer].append(text.charAt(i));
+		}
+	}
+
+	/**
+	 * Reads the next character of the html, stopping at the maximum
+	 *
+	 * @return the next character or -1 at the end of the page
+	 * @throws IOException if unable to read the html
+	 */
+	private int readRaw() throws IOException {
+		if (offset == limit) {
+			if (remaining < 0) {
+				return -1;
+			}
+
+			// reads one character past the maximum to know whether the page was cut off
+			int read = reader.read(chunk, 0, (int) Math.min(chunk.length, Math.max(remaining, 1)));
+
+			if (read <= 0 || remaining == 0) {
+				exact = exact && read <= 0;
+				remaining = -1;
+				return -1;
+			}
+
+			remaining -= read;
+			offset = 0;
+			limit = read;
+		}
+
+		return chunk[offset++];
+	}
+
+	/**
+	 * Reads the next character of the html outside of comments
+	 *
+	 * @return the next character or -1 at the end of the page
+	 * @throws IOException if unable to read the html
+	 *
+	 * @see HtmlCleaner#stripComments(String)
+	 */
+	private int readUncommented() throws IOException {
+		while (true) {
+			int c = next(RAW);
+
+			if (c != '<') {
+				return c;
+			}
+
+			comment.setLength(0);
+
+			while (comment.length() < 3 && (c = next(RAW)) >= 0) {
+				comment.append((char) c);
+
+				if (!"!--".startsWith(comment.toString())) {
+					break;
+				}
+			}
+
+			if (!"!--".contentEquals(comment)) {
+				unread(RAW, comment, 0);
+				return '<';
+			}
+
+			skipComment();
+		}
+	}
+
+	/**
+	 * Skips the rest of a comment after its opening
+	 *
+	 * @throws IOException if unable to read the html
+	 */
+	private void skipComment() throws IOException {
+		int dashes = 0;
+		int c;
+
+		while ((c = next(RAW)) >= 0) {
+			if (c == '>' && dashes >= 2) {
+				return;
+			}
+
+			dashes = c == '-' ? dashes + 1 : 0;
+		}
+
+		// the regular expression keeps a comment that is never closed
+		exact = false;
+	}
+
+	/**
+	 * Reads the next character of the html outside of comments and block elements
+	 *
+	 * @return the next character or -1 at the end of the page
+	 * @throws IOException if unable to read the html
+	 *
+	 * @see HtmlCleaner#stripBlockElements(String)
+	 */
+	private int readContent() throws IOException {
+		while (true) {
+			int c = next(UNCOMMENTED);
+			String name = c == '<' ? readBlockName() : null;
+
+			if (name == null) {
+				if (c == '<') {
+					opening = 0;
+				}
+				else if (opening >= 0 && opening < MAX_NAME && isWordChar(c)) {
+					opening++;
+				}
+				else {
+					opening = -1;
+				}
+
+				return c;
+			}
+
+			// removing the element could join the name before it with the text after it
+			exact = exact && opening < 0;
+			skipElement(name);
+		}
+	}
+
+	/**
+	 * Reads the name of a block element after an opening bracket. If the tag is
+	 * not a block element, the characters are put back to be read again.
+	 *
+	 * @return the lowercase name of the block element or {@code null} if the tag
+	 *   is not a block element
+	 * @throws IOException if unable to read the html
+	 */
+	private String readBlockName() throws IOException {
+		element.setLength(0);
+		int c;
+
+		while ((c = next(UNCOMMENTED)) >= 0 && isWordChar(c) && element.length() <= MAX_NAME) {
+			element.append((char) c);
+		}
+
+		String name = element.toString().toLowerCase();
+
+		if (c >= 0) {
+			element.append((char) c);
+
+			// a following letter outside of ASCII may still continue the name
+			if (Character.isHighSurrogate((char) c) && (c = next(UNCOMMENTED)) >= 0) {
+				element.append((char) c);
+			}
+		}
+
+		boolean block = BLOCK_ELEMENTS.contains(name) && element.length() > name.length()
+				&& BOUNDARY.matcher(element).region(name.length() - 1, element.length()).lookingAt();
+
+		// the characters after the name may be part of the closing tag
+		unread(UNCOMMENTED, element, block ? name.length() : 0);
+		return block ? name : null;
+	}
+
+	/**
+	 * Skips the rest of a block element up to and including its closing tag
+	 *
+	 * @param name the lowercase name of the element
+	 * @throws IOException if unable to read the html
+	 */
+	private void skipElement(String name) throws IOException {
+		String closing = "/" + name;
+		int c;
+
+		while ((c = next(UNCOMMENTED)) >= 0) {
+			if (c != '<') {
+				continue;
+			}
+
+			element.setLength(0);
+
+			while ((c = next(UNCOMMENTED)) >= 0) {
+				int length = element.length();
+
+				if (length < closing.length() ? toLowerCase(c) != closing.charAt(length) : !isSpace(c)) {
+					break;
+				}
+
+				element.append((char) c);
+			}
+
+			if (c == '>' && element.length() >= closing.length()) {
+				return;
+			}
+
+			if (c >= 0) {
+				element.append((char) c);
+			}
+
+			unread(UNCOMMENTED, element, 0);
+
+			if (exact) {
+				// an element removed earlier by the regular expressions could end elsewhere
+				String nested = readBlockName();
+
+				if (nested != null) {
+					unread(UNCOMMENTED, nested, 0);
+					exact = BLOCK_ELEMENTS.indexOf(nested) >= BLOCK_ELEMENTS.indexOf(name);
+				}
+			}
+		}
+
+		// the regular expression keeps an element that is never closed
+		exact = false;
+	}
+
+	/**
+	 * Reads the next character of the text outside of tags, passing on the links
+	 * found in anchor tags. If a tag does not end before the next opening bracket,
+	 * the bracket is text and the rest is read again.
+	 *
+	 * @return the next character or -1 at the end of the page
+	 * @throws IOException if unable to read the html
+	 *
+	 * @see HtmlCleaner#stripTags(String)
+	 */
+	private int readText() throws IOException {
+		while (true) {
+			int c = next(CONTENT);
+
+			if (c != '<') {
+				return c;
+			}
+
+			tag.setLength(0);
+			tag.append('<');
+
+			while ((c = next(CONTENT)) >= 0 && c != '<' && c != '>') {
+				if (tag.length() >= MAX_TAG) {
+					exact = false;
+					break;
+				}
+
+				tag.append((char) c);
+			}
+
+			if (c != '>') {
+				// the regular expression for links does not stop at the bracket
+				exact = exact && (c != '<' || !isAnchor());
+
+				if (c >= 0) {
+					pushback[CONTENT].append((char) c);
+				}
+
+				unread(CONTENT, tag, 1);
+				return '<';
+			}
+
+			tag.append('>');
+			findLink();
+		}
+	}
+
+	/**
+	 * Checks whether the tag being read could be an anchor tag with a link
+	 *
+	 * @return true if links are found and the tag starts like an anchor tag
+	 */
+	private boolean isAnchor() {
+		return base != null && tag.length() > 2 && toLowerCase(tag.charAt(1)) == 'a' && isSpace(tag.charAt(2));
+	}
+
+	/**
+	 * Passes the link of the anchor tag that was read to the handler, if any
+	 *
+	 * @see LinkFinder#convertUrl(URL, String)
+	 */
+	private void findLink() {
+		if (!isAnchor()) {
+			return;
+		}
+
+		Matcher href = HREF.matcher(tag);
+		int value = -1;
+
+		while (href.find()) {
+			value = href.end();
+		}
+
+		// a link that is not closed inside the tag is matched past the bracket
+		if (value >= 0 && tag.indexOf("\"", value) < 0) {
+			exact = false;
+		}
+
+		Matcher matcher = LinkFinder.ANCHOR_REGEX.matcher(tag);
+
+		if (matcher.matches()) {
+			URL url = LinkFinder.convertUrl(base, matcher.group(1));
+
+			if (LinkFinder.isHttp(url)) {
+				handler.link(url);
+			}
+		}
+	}
+
+	/**
+	 * Reads an entity after its ampersand and passes the decoded text on. An
+	 * entity that cannot be decoded is passed on unchanged.
+	 *
+	 * @throws IOException if unable to read the html
+	 *
+	 * @see StringEscapeUtils#unescapeHtml4(String)
+	 */
+	private void readEntity() throws IOException {
+		entity.setLength(0);
+		entity.append('&');
+
+		int c;
+
+		while ((c = next(TEXT)) >= 0 && (c == '#' || isWordChar(c))) {
+			if (entity.length() >= MAX_ENTITY) {
+				exact = false;
+				break;
+			}
+
+			entity.append((char) c);
+		}
+
+		String text;
+
+		if (c == ';') {
+			entity.append(';');
+			text = StringEscapeUtils.unescapeHtml4(entity.toString());
+		}
+		else {
+			if (c >= 0) {
+				pushback[TEXT].append((char) c);
+			}
+
+			text = entity.toString();
+		}
+
+		for (int i = 0; i < text.length(); i++) {
+			decoded(text.charAt(i));
+		}
+	}
+
+	/**
+	 * Passes on a character of decoded text, removing anything that still looks
+	 * like an entity the same way as {@link HtmlCleaner#stripEntities(String)}
+	 *
+	 * @param c the character
+	 */
+	private void decoded(char c) {
+		if (!unknown.isEmpty()) {
+			if (isWordChar(c) && unknown.length() < MAX_TAG) {
+				unknown.append(c);
+				return;
+			}
+
+			exact = exact && unknown.length() < MAX_TAG;
+
+			if (c == ';') {
+				unknown.setLength(0);
+				return;
+			}
+
+			flushUnknown();
+		}
+
+		if (c == '&') {
+			unknown.append(c);
+		}
+		else {
+			handler.text(c);
+		}
+	}
+
+	/**
+	 * Passes on the possible entity that turned out not to be one
+	 */
+	private void flushUnknown() {
+		for (int i = 0; i < unknown.length(); i++) {
+			handler.text(unknown.charAt(i));
+		}
+
+		unknown.setLength(0);
+	}
+
+	/**
+	 * Checks for a regular expression word character
+	 *
+	 * @param c the character
+	 * @return true if the character is a letter, digit, or underscore in ASCII
+	 */
+	private static boolean isWordChar(int c) {
+		return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_';
+	}
+
+	/**
+	 * Converts an ASCII letter to lowercase, the same as a case-insensitive
+	 * regular expression
+	 *
+	 * @param c the character
+	 * @return the lowercase letter or the character unchanged
+	 */
+	private static int toLowerCase(int c) {
+		return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+	}
+
+	/**
+	 * Checks for a regular expression whitespace character
+	 *
+	 * @param c the character
+	 * @return true if the character is whitespace in ASCII
+	 */
+	private static boolean isSpace(int c) {
+		return c == ' ' || c >= '\t' && c <= '\r';
+	}
+}
@@ -3,9 +3,16 @@ package edu.usfca.cs272;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
 import java.net.Socket;
 import java.net.URL;
@@ -16,7 +23,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import javax.net.SocketFactory;
 import javax.net.ssl.SSLSocketFactory;
 
 /**
@@ -27,6 +33,42 @@ import javax.net.ssl.SSLSocketFactory;
  * @version Fall 2023
  */
 public class HttpsFetcher {
+	/** Default time in milliseconds to wait for a connection to be established */
+	public static final int CONNECT_TIMEOUT = 10000;
+
+	/** Default time in milliseconds to wait for the server to send more data */
+	public static final int READ_TIMEOUT = 30000;
+
+	/** The time in milliseconds to wait for a connection to be established */
+	private static volatile int connectTimeout = CONNECT_TIMEOUT;
+
+	/** The time in milliseconds to wait for the server to send more data */
+	private static volatile int readTimeout = READ_TIMEOUT;
+
+	/**
+	 * Sets how long new connections wait for the server before giving up with a
+	 * {@link java.net.SocketTimeoutException}. Connections that are already open
+	 * keep their timeouts.
+	 *
+	 * @param connect the time in milliseconds to wait for a connection to be
+	 *   established, or 0 to wait forever
+	 * @param read the time in milliseconds to wait for the server to send more
+	 *   data, or 0 to wait forever
+	 */
+	public static void setTimeouts(int connect, int read) {
+		connectTimeout = Math.max(0, connect);
+		readTimeout = Math.max(0, read);
+	}
+
+	/**
+	 * Returns the time in milliseconds to wait for a connection to be established
+	 *
+	 * @return the connect timeout, or 0 if there is none
+	 */
+	public static int getConnectTimeout() {
+		return connectTimeout;
+	}
+
 	/**
 	 * Fetches the headers and content for the specified URL. The content is placed
 	 * as a list of all the lines fetched under the "Content" key.
@@ -72,7 +114,9 @@ public class HttpsFetcher {
 
 	/**
 	 * Uses a {@link Socket} to open a connection to the web server associated with
-	 * the provided URL. Supports HTTP and HTTPS connections.
+	 * the provided URL. Supports HTTP and HTTPS connections. The connection gives
+	 * up if it is not established or the server stops sending data for longer
+	 * than the timeouts.
 	 *
 	 * @param url the url to connect
 	 * @return a socket connection for that url
@@ -80,8 +124,25 @@ public class HttpsFetcher {
 	 * @throws IOException if an I/O error occurs when creating the socket
 	 *
 	 * @see URL#openConnection()
+	 * @see #setTimeouts(int, int)
 	 */
 	public static Socket openConnection(URL url) throws UnknownHostException, IOException {
+		return openConnection(url, null);
+	}
+
+	/**
+	 * Opens a connection like {@link #openConnection(URL)}, but looks up the host
+	 * in a cache of addresses. If the server refuses the connection at one
+	 * address, the next address of the host is tried.
+	 *
+	 * @param url the url to connect
+	 * @param dns the cache of host addresses, or {@code null} to look up the host
+	 *   every time
+	 * @return a socket connection for that url
+	 * @throws UnknownHostException if the host is not known
+	 * @throws IOException if an I/O error occurs when creating the socket
+	 */
+	public static Socket openConnection(URL url, DnsCache dns) throws UnknownHostException, IOException {
 		String protocol = url.getProtocol();
 		String host = url.getHost();
 
@@ -89,8 +150,37 @@ public class HttpsFetcher {
 		int defaultPort = https ? 443 : 80;
 		int port = url.getPort() < 0 ? defaultPort : url.getPort();
 
-		SocketFactory factory = https ? SSLSocketFactory.getDefault() : SocketFactory.getDefault();
-		return factory.createSocket(host, port);
+		InetAddress[] addresses = dns != null ? dns.resolve(host) : InetAddress.getAllByName(host);
+		ConnectException refused = null;
+
+		for (InetAddress address : addresses) {
+			Socket socket = new Socket();
+
+			try {
+				socket.connect(new InetSocketAddress(address, port), connectTimeout);
+				socket.setSoTimeout(readTimeout);
+
+				if (https) {
+					// the host name is still used to verify the certificate
+					SSLSocketFactory factory = (SSLSocketFactory) SSLSocketFactory.getDefault();
+					Socket secure = factory.createSocket(socket, host, port, true);
+					secure.setSoTimeout(readTimeout);
+					return secure;
+				}
+
+				return socket;
+			}
+			catch (ConnectException e) {
+				socket.close();
+				refused = e;
+			}
+			catch (IOException e) {
+				socket.close();
+				throw e;
+			}
+		}
+
+		throw refused != null ? refused : new UnknownHostException(host);
 	}
 
 	/**
@@ -101,12 +191,47 @@ public class HttpsFetcher {
 	 * @throws IOException if unable to write request to socket
 	 */
 	public static void printGetRequest(PrintWriter writer, URL url) throws IOException {
+		printGetRequest(writer, url, Map.of());
+	}
+
+	/**
+	 * Writes a simple HTTP GET request with additional headers to the provided
+	 * socket writer.
+	 *
+	 * @param writer a writer created from a socket connection
+	 * @param url the url to fetch via the socket connection
+	 * @param headers the additional header names and values to send
+	 * @throws IOException if unable to write request to socket
+	 */
+	public static void printGetRequest(PrintWriter writer, URL url, Map<String, String> headers) throws IOException {
+		printGetRequest(writer, url, headers, false);
+	}
+
+	/**
+	 * Writes a simple HTTP GET request with additional headers to the provided
+	 * socket writer, optionally asking the server to keep the connection open
+	 * after the response.
+	 *
+	 * @param writer a writer created from a socket connection
+	 * @param url the url to fetch via the socket connection
+	 * @param headers the additional header names and values to send
+	 * @param keepAlive whether to ask the server to keep the connection open
+	 * @throws IOException if unable to write request to socket
+	 *
+	 * @see ConnectionPool
+	 */
+	public static void printGetRequest(PrintWriter writer, URL url, Map<String, String> headers, boolean keepAlive) throws IOException {
 		String host = url.getHost();
 		String resource = url.getFile().isBlank() ? "/" : url.getFile();
 
 		writer.printf("GET %s HTTP/1.1\r\n", resource);
 		writer.printf("Host: %s\r\n", host);
-		writer.printf("Connection: close\r\n");
+
+		for (var header : headers.entrySet()) {
+			writer.printf("%s: %s\r\n", header.getKey(), header.getValue());
+		}
+
+		writer.printf("Connection: %s\r\n", keepAlive ? "keep-alive" : "close");
 		writer.printf("\r\n");
 		writer.flush();
 	}
@@ -140,4 +265,328 @@ public class HttpsFetcher {
 
 		return results;
 	}
+
+	/**
+	 * Gets the header fields from the input of a socket connection, leaving the
+	 * input at the start of the content so that the content can be read exactly.
+	 *
+	 * @param response the buffered input of a socket connection
+	 * @return a map of header fields to a list of header values
+	 * @throws IOException if unable to read from socket
+	 * @throws EOFException if the connection was closed before a response
+	 *
+	 * @see #getHeaderFields(BufferedReader)
+	 */
+	public static Map<String, List<String>> getHeaderFields(InputStream response) throws IOException {
+		Map<String, List<String>> results = new HashMap<>();
+
+		String line = readLine(response);
+
+		if (line == null) {
+			throw new EOFException("Connection closed before a response");
+		}
+
+		results.put(null, List.of(line));
+
+		while ((line = readLine(response)) != null && !line.isBlank()) {
+			String[] split = line.split(":\\s*", 2);
+
+			if (split.length == 2) {
+				results.putIfAbsent(split[0], new ArrayList<>());
+				results.get(split[0]).add(split[1]);
+			}
+		}
+
+		return results;
+	}
+
+	/**
+	 * Returns the first value of a header, ignoring the capitalization of the
+	 * header name.
+	 *
+	 * @param headers the HTTP/1.1 headers to search
+	 * @param name the name of the header
+	 * @return the first value or {@code null} if the header is not present
+	 */
+	public static String getHeader(Map<String, List<String>> headers, String name) {
+		for (var header : headers.entrySet()) {
+			if (name.equalsIgnoreCase(header.getKey()) && !header.getValue().isEmpty()) {
+				return header.getValue().get(0);
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Reads the content of a response. The end of the content is found using the
+	 * chunked transfer encoding or "Content-Length" header if possible, and
+	 * otherwise by reading until the connection is closed.
+	 *
+	 * @param response the buffered input of a socket connection after the headers
+	 * @param headers the headers of the response
+	 * @return the content of the response
+	 * @throws IOException if unable to read the content
+	 *
+	 * @see #openContent(InputStream, Map)
+	 */
+	public static byte[] readContent(InputStream response, Map<String, List<String>> headers) throws IOException {
+		return openContent(response, headers).readAllBytes();
+	}
+
+	/**
+	 * Returns a stream of the content of a response that ends where the content
+	 * ends, so the content can be read as it arrives. Closing the stream does not
+	 * close the connection.
+	 *
+	 * @param response the buffered input of a socket connection after the headers
+	 * @param headers the headers of the response
+	 * @return the content of the response
+	 * @throws NumberFormatException if the "Content-Length" header is invalid
+	 *
+	 * @see #isDelimited(Map)
+	 */
+	public static InputStream openContent(InputStream response, Map<String, List<String>> headers) throws NumberFormatException {
+		String encoding = getHeader(headers, "Transfer-Encoding");
+		String length = getHeader(headers, "Content-Length");
+
+		if (encoding != null && encoding.strip().equalsIgnoreCase("chunked")) {
+			return new ChunkedInputStream(response);
+		}
+
+		if (length != null) {
+			return new LimitedInputStream(response, Long.parseLong(length.strip()));
+		}
+
+		return response;
+	}
+
+	/**
+	 * Returns whether the end of a response can be found without the connection
+	 * being closed, so that the connection can be used for another request.
+	 *
+	 * @param headers the headers of the response
+	 * @return true if the connection can be kept open after the response
+	 */
+	public static boolean isDelimited(Map<String, List<String>> headers) {
+		List<String> statusLine = headers.get(null);
+		String connection = getHeader(headers, "Connection");
+		String encoding = getHeader(headers, "Transfer-Encoding");
+
+		if (statusLine == null || !statusLine.get(0).startsWith("HTTP/1.1")) {
+			return false;
+		}
+
+		if (connection != null && connection.strip().equalsIgnoreCase("close")) {
+			return false;
+		}
+
+		return encoding != null ? encoding.strip().equalsIgnoreCase("chunked") : getHeader(headers, "Content-Length") != null;
+	}
+
+	/**
+	 * Reads a single line terminated by a line feed, removing any carriage return
+	 *
+	 * @param input the input to read from
+	 * @return the line or {@code null} if the input has ended
+	 * @throws IOException if IO error occurs
+	 */
+	public static String readLine(InputStream input) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int read;
+
+		while ((read = input.read()) >= 0 && read != '\n') {
+			line.write(read);
+		}
+
+		if (read < 0 && line.size() == 0) {
+			return null;
+		}
+
+		String text = line.toString(UTF_8);
+		return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+	}
+
+	/**
+	 * Decodes content sent with chunked transfer encoding, including any trailer
+	 * headers after the last chunk
+	 *
+	 * @param input the chunked content
+	 * @return the decoded content
+	 * @throws IOException if the content is malformed
+	 */
+	public static byte[] dechunk(InputStream input) throws IOException {
+		return new ChunkedInputStream(input).readAllBytes();
+	}
+
+	/** Reads exactly the number of bytes given by a "Content-Length" header */
+	private static class LimitedInputStream extends FilterInputStream {
+		/** The number of bytes left in the content */
+		private long remaining;
+
+		/**
+		 * Initializes the stream
+		 *
+		 * @param input the input of the connection
+		 * @param length the length of the content
+		 */
+		private LimitedInputStream(InputStream input, long length) {
+			super(input);
+			this.remaining = length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+
+			int read = super.read();
+
+			if (read < 0) {
+				throw new EOFException("Connection closed before the end of the content");
+			}
+
+			remaining--;
+			return read;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+
+			int read = super.read(buffer, offset, (int) Math.min(length, remaining));
+
+			if (read < 0) {
+				throw new EOFException("Connection closed before the end of the content");
+			}
+
+			remaining -= read;
+			return read;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return (int) Math.min(super.available(), remaining);
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		@Override
+		public void close() {
+			// the connection may be used for another request
+		}
+	}
+
+	/** Decodes content sent with chunked transfer encoding as it is read */
+	private static class ChunkedInputStream extends FilterInputStream {
+		/** The number of bytes left in the current chunk */
+		private int remaining;
+
+		/** Whether the last chunk and trailer headers have been read */
+		private boolean finished;
+
+		/**
+		 * Initializes the stream
+		 *
+		 * @param input the input of the connection
+		 */
+		private ChunkedInputStream(InputStream input) {
+			super(input);
+			this.remaining = 0;
+			this.finished = false;
+		}
+
+		/**
+		 * Reads the size of the next chunk if the current chunk has ended
+		 *
+		 * @return true if there is more content
+		 * @throws IOException if the content is malformed
+		 */
+		private boolean nextChunk() throws IOException {
+			while (remaining <= 0 && !finished) {
+				String line = readLine(in);
+
+				if (line == null) {
+					throw new EOFException("Connection closed before the end of a chunk");
+				}
+
+				String size = line.split(";", 2)[0].strip();
+
+				// the line break after each chunk
+				if (size.isEmpty()) {
+					continue;
+				}
+
+				remaining = Integer.parseInt(size, 16);
+
+				if (remaining == 0) {
+					// skip any trailer headers up to the final blank line
+					do {
+						line = readLine(in);
+					} while (line != null && !line.isEmpty());
+
+					finished = true;
+				}
+			}
+
+			return !finished;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (!nextChunk()) {
+				return -1;
+			}
+
+			int read = super.read();
+
+			if (read < 0) {
+				throw new EOFException("Connection closed before the end of a chunk");
+			}
+
+			remaining--;
+			return read;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if (length == 0) {
+				return 0;
+			}
+
+			if (!nextChunk()) {
+				return -1;
+			}
+
+			int read = super.read(buffer, offset, Math.min(length, remaining));
+
+			if (read < 0) {
+				throw new EOFException("Connection closed before the end of a chunk");
+			}
+
+			remaining -= read;
+			return read;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return Math.min(super.available(), remaining);
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		@Override
+		public void close() {
+			// the connection may be used for another request
+		}
+	}
 }
@@ -0,0 +1,518 @@
+package edu.usfca.cs272;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static opennlp.tools.stemmer.snowball.SnowballStemmer.ALGORITHM.ENGLISH;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import opennlp.tools.stemmer.Stemmer;
+import opennlp.tools.stemmer.snowball.SnowballStemmer;
+
+/**
+ * Builds an inverted index from text files while keeping a snapshot of each
+ * file's size, modification time, content hash, and index data. On the next
+ * run, files that have not changed are restored from the snapshot instead of
+ * being read and stemmed again, and files that no longer exist are dropped.
+ *
+ * @author Isaac Meltsner
+ */
+public class IncrementalIndexProcessor {
+	/** Identifies a snapshot file and its format version */
+	private static final int MAGIC = 0x49494458;
+
+	/** The hash algorithm used to detect changed content */
+	private static final String ALGORITHM = "SHA-256";
+
+	/** Logger used for this class */
+	private static final Logger log = LogManager.getLogger();
+
+	/**
+	 * Processes path according to path type, reusing unchanged files from the
+	 * snapshot and then saving an updated snapshot.
+	 *
+	 * @param path the path to process
+	 * @param index the inverted index
+	 * @param snapshot the path of the snapshot to read and update
+	 * @throws IOException if IOError occurs
+	 * @throws NullPointerException if null pointer is found
+	 */
+	public static void process(Path path, InvertedIndex index, Path snapshot) throws IOException, NullPointerException {
+		Map<String, Entry> previous = readSnapshot(snapshot);
+		Map<String, Entry> current = new TreeMap<>();
+
+		new Task(listFiles(path), previous, current, index).run();
+		writeSnapshot(current, snapshot, previous);
+	}
+
+	/**
+	 * Processes path according to path type using a work queue, reusing unchanged
+	 * files from the snapshot and then saving an updated snapshot.
+	 *
+	 * @param path the path to process
+	 * @param index the inverted index
+	 * @param snapshot the path of the snapshot to read and update
+	 * @param queue the work queue to use
+	 * @throws IOException if IOError occurs
+	 * @throws NullPointerException if null pointer is found
+	 */
+	public static void process(Path path, ThreadSafeInvertedIndex index, Path snapshot, WorkQueue queue) throws IOException, NullPointerException {
+		Map<String, Entry> previous = readSnapshot(snapshot);
+		Map<String, Entry> current = new ConcurrentSkipListMap<>();
+		List<Path> batch = new ArrayList<>();
+		long bytes = 0;
+
+		for (Path file : listFiles(path)) {
+			batch.add(file);
+			bytes += Files.size(file);
+
+			if (bytes >= QueuedInvertedIndexProcessor.BATCH_BYTES) {
+				queue.execute(new Task(batch, previous, current, index));
+				batch = new ArrayList<>();
+				bytes = 0;
+			}
+		}
+
+		if (!batch.isEmpty()) {
+			queue.execute(new Task(batch, previous, current, index));
+		}
+
+		queue.finish();
+		writeSnapshot(current, snapshot, previous);
+	}
+
+	/**
+	 * Lists the text files found at a path, recursively if the path is a directory
+	 *
+	 * @param path the path to list
+	 * @return the text files found
+	 * @throws IOException if IO error occurs
+	 */
+	private static List<Path> listFiles(Path path) throws IOException {
+		List<Path> files = new ArrayList<>();
+
+		if (Files.isDirectory(path)) {
+			listFiles(path, files);
+		}
+		else {
+			files.add(path);
+		}
+
+		return files;
+	}
+
+	/**
+	 * Recursively iterates through a directory and adds text files to the list
+	 *
+	 * @param path path of directory
+	 * @param files the list of files to add to
+	 * @throws IOException if IO error occurs
+	 */
+	private static void listFiles(Path path, List<Path> files) throws IOException {
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+			for (Path newPath : stream) {
+				if (Files.isDirectory(newPath)) {
+					listFiles(newPath, files);
+				}
+				else if (InvertedIndexProcessor.isIndexable(newPath)) {
+					files.add(newPath);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads a snapshot file. A missing or unreadable snapshot is treated as empty
+	 * so that every file is processed.
+	 *
+	 * @param snapshot the path of the snapshot
+	 * @return the entries of the snapshot by file name
+	 */
+	private static Map<String, Entry> readSnapshot(Path snapshot) {
+		Map<String, Entry> entries = new HashMap<>();
+
+		if (!Files.isRegularFile(snapshot)) {
+			return entries;
+		}
+
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+			if (input.readInt() != MAGIC) {
+				throw new IOException("Unrecognized snapshot format: " + snapshot);
+			}
+
+			int count = input.readInt();
+
+			for (int i = 0; i < count; i++) {
+				Entry entry = Entry.read(input);
+				entries.put(entry.file, entry);
+			}
+		}
+		catch (IOException e) {
+			log.warn("Unable to read snapshot at path: {}", snapshot);
+			log.catching(Level.DEBUG, e);
+			entries.clear();
+		}
+
+		return entries;
+	}
+
+	/**
+	 * Writes a snapshot file, replacing any previous snapshot only once the new
+	 * one has been completely written.
+	 *
+	 * @param entries the entries to write
+	 * @param snapshot the path of the snapshot
+	 * @param previous the entries of the previous snapshot
+	 * @throws IOException if IO error occurs
+	 */
+	private static void writeSnapshot(Map<String, Entry> entries, Path snapshot, Map<String, Entry> previous) throws IOException {
+		Path parent = snapshot.toAbsolutePath().getParent();
+		Path temp = Files.createTempFile(parent, "snapshot", ".tmp");
+
+		try {
+			try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+				output.writeInt(MAGIC);
+				output.writeInt(entries.size());
+
+				for (Entry entry : entries.values()) {
+					entry.write(output);
+				}
+			}
+
+			Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING);
+		}
+		finally {
+			Files.deleteIfExists(temp);
+		}
+
+		long reused = entries.values().stream().filter(entry -> entry.reused).count();
+		long dropped = previous.keySet().stream().filter(file -> !entries.containsKey(file)).count();
+		log.info("Snapshot updated: {} reused, {} processed, {} dropped.", reused, entries.size() - reused, dropped);
+	}
+
+	/**
+	 * Calculates the hash of the contents of a file
+	 *
+	 * @param path the path of the file
+	 * @return the hash of the file contents
+	 * @throws IOException if unable to read the file
+	 */
+	private static byte[] hash(Path path) throws IOException {
+		try (InputStream input = Files.newInputStream(path)) {
+			MessageDigest digest = MessageDigest.getInstance(ALGORITHM);
+			byte[] buffer = new byte[8192];
+			int read;
+
+			while ((read = input.read(buffer)) > 0) {
+				digest.update(buffer, 0, read);
+			}
+
+			return digest.digest();
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Writes a string as its length in bytes followed by its UTF-8 bytes
+	 *
+	 * @param output the output to write to
+	 * @param text the string to write
+	 * @throws IOException if IO error occurs
+	 */
+	static void writeString(DataOutputStream output, String text) throws IOException {
+		byte[] bytes = text.getBytes(UTF_8);
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	/**
+	 * Reads a string written by {@link #writeString(DataOutputStream, String)}
+	 *
+	 * @param input the input to read from
+	 * @return the string read
+	 * @throws IOException if IO error occurs
+	 */
+	static String readString(DataInputStream input) throws IOException {
+		byte[] bytes = new byte[input.readInt()];
+		input.readFully(bytes);
+		return new String(bytes, UTF_8);
+	}
+
+	/**
+	 * Encodes all of the words, locations, and positions of an index
+	 *
+	 * @param local the index to encode
+	 * @return the encoded index
+	 * @throws IOException if IO error occurs
+	 */
+	static byte[] encode(InvertedIndex local) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		try (DataOutputStream output = new DataOutputStream(bytes)) {
+			write(local, output);
+		}
+
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Writes all of the words, locations, and positions of an index to an output
+	 *
+	 * @param local the index to write
+	 * @param output the output to write to
+	 * @throws IOException if IO error occurs
+	 *
+	 * @see #encode(InvertedIndex)
+	 */
+	static void write(InvertedIndex local, DataOutputStream output) throws IOException {
+		output.writeInt(local.numWords());
+
+		for (String word : local.viewWords()) {
+			writeString(output, word);
+			output.writeInt(local.numLocations(word));
+
+			for (String location : local.viewLocations(word)) {
+				writeString(output, location);
+				output.writeInt(local.numPositions(word, location));
+
+				for (int position : local.viewPositions(word, location)) {
+					output.writeInt(position);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Decodes an index encoded by {@link #encode(InvertedIndex)} into a local index
+	 *
+	 * @param data the encoded index
+	 * @param local the index to add the decoded words to
+	 * @throws IOException if the data is malformed
+	 */
+	static void decode(byte[] data, InvertedIndex local) throws IOException {
+		try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(data))) {
+			read(input, local);
+		}
+	}
+
+	/**
+	 * Reads an index written by {@link #write(InvertedIndex, DataOutputStream)}
+	 * into a local index
+	 *
+	 * @param input the input to read from
+	 * @param local the index to add the words read to
+	 * @throws IOException if the data is malformed or an IO error occurs
+	 */
+	static void read(DataInputStream input, InvertedIndex local) throws IOException {
+		try {
+			int words = input.readInt();
+
+			for (int i = 0; i < words; i++) {
+				String word = readString(input);
+				int locations = input.readInt();
+
+				for (int j = 0; j < locations; j++) {
+					String location = readString(input);
+					int positions = input.readInt();
+
+					for (int k = 0; k < positions; k++) {
+						local.addData(word, location, input.readInt());
+					}
+				}
+			}
+		}
+		catch (EOFException e) {
+			throw new IOException("Truncated index data", e);
+		}
+	}
+
+	/** The snapshot of a single file */
+	private static class Entry {
+		/** The file name */
+		private final String file;
+
+		/** The size of the file in bytes */
+		private final long size;
+
+		/** The last modified time of the file in milliseconds */
+		private final long modified;
+
+		/** The hash of the file contents */
+		private final byte[] hash;
+
+		/** The encoded index data found in the file */
+		private final byte[] data;
+
+		/** Whether this entry was restored from the previous snapshot */
+		private final boolean reused;
+
+		/**
+		 * Initializes the snapshot of a single file
+		 *
+		 * @param file the file name
+		 * @param size the size of the file in bytes
+		 * @param modified the last modified time of the file in milliseconds
+		 * @param hash the hash of the file contents
+		 * @param data the encoded index data found in the file
+		 * @param reused whether the entry was restored from the previous snapshot
+		 */
+		private Entry(String file, long size, long modified, byte[] hash, byte[] data, boolean reused) {
+			this.file = file;
+			this.size = size;
+			this.modified = modified;
+			this.hash = hash;
+			this.data = data;
+			this.reused = reused;
+		}
+
+		/**
+		 * Writes this entry to a snapshot
+		 *
+		 * @param output the output to write to
+		 * @throws IOException if IO error occurs
+		 */
+		private void write(DataOutputStream output) throws IOException {
+			writeString(output, file);
+			output.writeLong(size);
+			output.writeLong(modified);
+			output.writeInt(hash.length);
+			output.write(hash);
+			output.writeInt(data.length);
+			output.write(data);
+		}
+
+		/**
+		 * Reads an entry from a snapshot
+		 *
+		 * @param input the input to read from
+		 * @return the entry read
+		 * @throws IOException if IO error occurs
+		 */
+		private static Entry read(DataInputStream input) throws IOException {
+			String file = readString(input);
+			long size = input.readLong();
+			long modified = input.readLong();
+			byte[] hash = new byte[input.readInt()];
+			input.readFully(hash);
+			byte[] data = new byte[input.readInt()];
+			input.readFully(data);
+			return new Entry(file, size, modified, hash, data, true);
+		}
+	}
+
+	/** Restores or processes a batch of files */
+	private static class Task implements Runnable {
+		/** The paths of the files to process */
+		private final List<Path> paths;
+
+		/** The entries of the previous snapshot */
+		private final Map<String, Entry> previous;
+
+		/** The entries of the new snapshot */
+		private final Map<String, Entry> current;
+
+		/** The main inverted index to use */
+		private final InvertedIndex index;
+
+		/**
+		 * Initializes the files to process and where to store the results
+		 *
+		 * @param paths the paths of the files
+		 * @param previous the entries of the previous snapshot
+		 * @param current the entries of the new snapshot
+		 * @param index the inverted index to use
+		 */
+		private Task(List<Path> paths, Map<String, Entry> previous, Map<String, Entry> current, InvertedIndex index) {
+			this.paths = paths;
+			this.previous = previous;
+			this.current = current;
+			this.index = index;
+		}
+
+		@Override
+		public void run() {
+			InvertedIndex local = new InvertedIndex();
+			Stemmer stemmer = new SnowballStemmer(ENGLISH);
+			List<Entry> entries = new ArrayList<>();
+
+			for (Path path : paths) {
+				try {
+					entries.add(process(path, local, stemmer));
+				}
+				catch (IOException e) {
+					// left out of the snapshot so the file is read again next time
+					local.removeLocation(path.toString());
+					log.warn("Unable to process file at path: {}", path);
+					log.catching(Level.DEBUG, e);
+				}
+			}
+
+			index.addAll(local);
+
+			for (Entry entry : entries) {
+				current.put(entry.file, entry);
+			}
+		}
+
+		/**
+		 * Restores a file from the previous snapshot if its size and modification
+		 * time or its contents are unchanged, and otherwise reads and stems it.
+		 *
+		 * @param path the path of the file
+		 * @param local the local index to add to
+		 * @param stemmer the stemmer to use
+		 * @return the snapshot entry for the file
+		 * @throws IOException if IO error occurs
+		 */
+		private Entry process(Path path, InvertedIndex local, Stemmer stemmer) throws IOException {
+			String file = path.toString();
+			long size = Files.size(path);
+			long modified = Files.getLastModifiedTime(path).toMillis();
+			Entry old = previous.get(file);
+
+			if (old != null && old.size == size && old.modified == modified) {
+				decode(old.data, local);
+				return old;
+			}
+
+			byte[] hash = hash(path);
+
+			if (old != null && Arrays.equals(old.hash, hash)) {
+				decode(old.data, local);
+				return new Entry(file, size, modified, hash, old.data, true);
+			}
+
+			InvertedIndex single = new InvertedIndex();
+			InvertedIndexProcessor.processFile(path, single, stemmer);
+			byte[] data = encode(single);
+			local.addAll(single);
+			return new Entry(file, size, modified, hash, data, false);
+		}
+	}
+}
@@ -5,6 +5,7 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -24,10 +25,14 @@ public class InvertedIndex {
 	/** Stores words, locations, and word positions in locations */
 	private final TreeMap<String, TreeMap<String, TreeSet<Integer>>> invertedIndex;
 
+	/** Stores locations and the words found in each location */
+	private final HashMap<String, HashSet<String>> locationWords;
+
 	/** Class constructor to initialize map and inverted index */
 	public InvertedIndex() {
 		wordCounts = new TreeMap<>();
 		invertedIndex = new TreeMap<>();
+		locationWords = new HashMap<>();
 	}
 
 	/**
@@ -192,6 +197,7 @@ public class InvertedIndex {
 			.add(position);
 		
 		wordCounts.merge(location, position, Integer::max);
+		locationWords.computeIfAbsent(location, l -> new HashSet<>()).add(word);
 	}
 	
 	/**
@@ -238,6 +244,74 @@ public class InvertedIndex {
 		for (var otherEntry : other.wordCounts.entrySet()) {
 			this.wordCounts.merge(otherEntry.getKey(), otherEntry.getValue(), Integer::max);
 		}
+
+		for (var otherEntry : other.locationWords.entrySet()) {
+			HashSet<String> words = this.locationWords.get(otherEntry.getKey());
+
+			if (words == null) {
+				this.locationWords.put(otherEntry.getKey(), otherEntry.getValue());
+			}
+			else {
+				words.addAll(otherEntry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Removes a location and all of its word positions from the inverted index.
+	 * Only the words found in the location are visited.
+	 * 
+	 * @param location the location to remove
+	 * @return true if the location was in the inverted index, false otherwise
+	 */
+	public boolean removeLocation(String location) {
+		HashSet<String> words = locationWords.remove(location);
+
+		if (words == null) {
+			return false;
+		}
+
+		for (String word : words) {
+			TreeMap<String, TreeSet<Integer>> locations = invertedIndex.get(word);
+			locations.remove(location);
+
+			if (locations.isEmpty()) {
+				invertedIndex.remove(word);
+			}
+		}
+
+		wordCounts.remove(location);
+		return true;
+	}
+
+	/**
+	 * Replaces the contents of a location with a list of words starting at position 1
+	 * 
+	 * @param location the location to replace
+	 * @param words the new words found in the location
+	 * 
+	 * @see #removeLocation(String)
+	 * @see #addAll(List, String, int)
+	 */
+	public void replaceLocation(String location, List<String> words) {
+		removeLocation(location);
+		addAll(words, location, 0);
+	}
+
+	/**
+	 * Replaces the contents of a location with the contents of another inverted
+	 * index, which is expected to only contain data for that location. If the other
+	 * index is empty, the location is simply removed.
+	 * 
+	 * @param location the location to replace
+	 * @param other the inverted index containing the new contents of the location
+	 * 
+	 * @see #removeLocation(String)
+	 * @see #addAll(InvertedIndex)
+	 */
+	public void replaceLocation(String location, InvertedIndex other) {
+		removeLocation(location);
+		addAll(other);
 	}
 	
 	/**
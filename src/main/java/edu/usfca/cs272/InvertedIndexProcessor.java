@@ -4,6 +4,8 @@ import static opennlp.tools.stemmer.snowball.SnowballStemmer.ALGORITHM.ENGLISH;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
@@ -30,42 +32,66 @@ public class InvertedIndexProcessor {
 	 * @param path path of the file
 	 * @param index the Indexer object
 	 * @throws IOException if an IOException occurs
+	 * 
+	 * @see #processFile(Path, InvertedIndex, Stemmer)
 	 */
 	public static void processFile(Path path, InvertedIndex index) throws IOException {
-		int count = 0;
-
-		try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
-			while (reader.ready()) {
-				count = processString(reader.readLine(), index, path.toString(), count);
-			}
-		}
+		processFile(path, index, stemmer);
 	}
 
 	/**
 	 * Reads a file, cleans and stems each word
-	 * Adds word counts to map and word positions in files to inverted index
+	 * Adds word counts to map and word positions in files to inverted index.
+	 * Gzip compressed files are decompressed as they are read, and each text
+	 * file within an archive is added as its own location.
 	 *  
 	 * @param path path of the file
 	 * @param index the Indexer object
 	 * @param stemmer the stemmer to use
 	 * @throws IOException if an IOException occurs
+	 * 
+	 * @see ArchiveReader
 	 */
 	public static void processFile(Path path, InvertedIndex index, Stemmer stemmer) throws IOException {
+		if (ArchiveReader.isArchive(path)) {
+			ArchiveReader.read(path, (location, input) -> processReader(newReader(input), index, location, stemmer));
+			return;
+		}
+
+		try (BufferedReader reader = newReader(ArchiveReader.open(path))) {
+			processReader(reader, index, path.toString(), stemmer);
+		}
+	}
+
+	/**
+	 * Reads all of the lines from a reader, cleans and stems each word
+	 * Adds word counts to map and word positions in the location to inverted index
+	 * 
+	 * @param reader the reader to read from
+	 * @param index the inverted index to use
+	 * @param location the location where the content was found
+	 * @param stemmer the stemmer to use
+	 * @throws IOException if an IOException occurs
+	 */
+	public static void processReader(BufferedReader reader, InvertedIndex index, String location, Stemmer stemmer) throws IOException {
 		int count = 0;
+		String line;
 
-		try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
-			while (reader.ready()) {
-				
-				String[] words = FileStemmer.parse(reader.readLine());
-				
-				for (String word: words) {
-					index.addData(stemmer.stem(word).toString(), path.toString(), count + 1);
-					count++;
-				}
-			}
+		while ((line = reader.readLine()) != null) {
+			count = processString(line, index, location, count, stemmer);
 		}
 	}
 
+	/**
+	 * Creates a UTF-8 reader for an input stream
+	 * 
+	 * @param input the input stream to read
+	 * @return a buffered reader for the input stream
+	 */
+	public static BufferedReader newReader(InputStream input) {
+		return new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+	}
+
 	/**
 	 * Cleans, parses, and stems a string and adds each word found to the inverted index
 	 * 
@@ -130,7 +156,7 @@ public class InvertedIndexProcessor {
 				if (Files.isDirectory(newPath)) {
 					processDir(newPath, index);
 				}
-				else if (isTextFile(newPath)) {
+				else if (isIndexable(newPath)) {
 					processFile(newPath, index);
 				}
 			}
@@ -138,15 +164,34 @@ public class InvertedIndexProcessor {
 	}
 
 	/**
-	 * Checks to see if the given path is a text file
+	 * Checks to see if the given path is a text file, which may be gzip compressed
 	 * 
 	 * @param path the path to check
 	 * @return true if path is a text file false otherwise
 	 */
 	public static boolean isTextFile(Path path) {
 		String lowerCasePath = path.toString().toLowerCase();
+
+		if (lowerCasePath.endsWith(".gz")) {
+			lowerCasePath = lowerCasePath.substring(0, lowerCasePath.length() - 3);
+		}
+
 		return lowerCasePath.endsWith(".txt") || lowerCasePath.endsWith(".text");
 	}
+
+	/**
+	 * Checks to see if the given path is a text file (possibly gzip compressed) or
+	 * an archive that may contain text files
+	 * 
+	 * @param path the path to check
+	 * @return true if path should be processed false otherwise
+	 * 
+	 * @see #isTextFile(Path)
+	 * @see ArchiveReader#isArchive(Path)
+	 */
+	public static boolean isIndexable(Path path) {
+		return isTextFile(path) || ArchiveReader.isArchive(path);
+	}
 	
 	/**
 	 * Processes path according to path type
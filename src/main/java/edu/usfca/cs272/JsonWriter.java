@@ -222,6 +222,52 @@ public class JsonWriter {
 		}
 	}
 
+	/**
+	 * Writes the elements as a pretty JSON object of text values.
+	 *
+	 * @param elements the elements to write
+	 * @param writer the writer to use
+	 * @param indent the initial indent level
+	 * @throws IOException if an IO error occurs
+	 *
+	 * @see #writeObject(Map, Writer, int)
+	 */
+	public static void writeObjectQuotes(Map<String, String> elements, Writer writer, int indent) throws IOException {
+		writer.write("{");
+
+		var iterator = elements.entrySet().iterator();
+
+		while (iterator.hasNext()) {
+			var entry = iterator.next();
+			writer.write("\n");
+			writeQuote(entry.getKey(), writer, indent + 1);
+			writer.write(": ");
+			writeQuote(entry.getValue(), writer, 0);
+
+			if (iterator.hasNext()) {
+				writer.write(",");
+			}
+		}
+
+		writer.write("\n");
+		writeIndent("}", writer, indent);
+	}
+
+	/**
+	 * Writes the elements as a pretty JSON object of text values to file.
+	 *
+	 * @param elements the elements to write
+	 * @param path the file path to use
+	 * @throws IOException if an IO error occurs
+	 *
+	 * @see #writeObjectQuotes(Map, Writer, int)
+	 */
+	public static void writeObjectQuotes(Map<String, String> elements, Path path) throws IOException {
+		try (BufferedWriter writer = Files.newBufferedWriter(path, UTF_8)) {
+			writeObjectQuotes(elements, writer, 0);
+		}
+	}
+
 	/**
 	 * A helper method for writeObjectArrays that writes a portion of the JSON ouptut
 	 * 
@@ -17,6 +17,9 @@ import java.util.regex.Pattern;
  * @version Fall 2023
  */
 public class LinkFinder {
+	/** The regular expression used to find the links in anchor tags */
+	public static final Pattern ANCHOR_REGEX = Pattern.compile("(?i)<a\\s+[^>]*href\\s*=\\s*\\\"([^\\\"]*)\\\"[^>]*>");
+
 	/**
 	 * Finds all the valid HTTP(S) links in the HREF attribute of the anchor tags in
 	 * the provided HTML. The links will be converted to an absolute URL using the
@@ -30,7 +33,7 @@ public class LinkFinder {
 	 * @param html the raw HTML associated with the base URL
 	 * @param links the data structure to store found HTTP(S) links
 	 *
-	 * @see Pattern#compile(String)
+	 * @see #ANCHOR_REGEX
 	 * @see Matcher#find()
 	 * @see Matcher#group(int)
 	 *
@@ -38,9 +41,7 @@ public class LinkFinder {
 	 * @see #isHttp(URL)
 	 */
 	public static void findLinks(URL base, String html, Collection<URL> links) {
-		String regex = "(?i)<a\\s+[^>]*href\\s*=\\s*\\\"([^\\\"]*)\\\"[^>]*>";
-		Pattern pattern = Pattern.compile(regex);
-		Matcher matcher = pattern.matcher(html);
+		Matcher matcher = ANCHOR_REGEX.matcher(html);
 
 		while (matcher.find()) {
 			for (int i = 1; i <= matcher.groupCount(); i++) {
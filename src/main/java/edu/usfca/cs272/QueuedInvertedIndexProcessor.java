@@ -2,12 +2,23 @@ package edu.usfca.cs272;
 
 import static opennlp.tools.stemmer.snowball.SnowballStemmer.ALGORITHM.ENGLISH;
 
+import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.UncheckedIOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.NotDirectoryException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import opennlp.tools.stemmer.Stemmer;
 import opennlp.tools.stemmer.snowball.SnowballStemmer;
@@ -18,9 +29,16 @@ import opennlp.tools.stemmer.snowball.SnowballStemmer;
  * @author Isaac Meltsner
  */
 public class QueuedInvertedIndexProcessor {
-	 /**
+	/** Files are grouped into one task until their total size reaches this many bytes */
+	public static final long BATCH_BYTES = 1 << 20;
+
+	/** Logger used for this class */
+	private static final Logger log = LogManager.getLogger();
+
+	/**
 	 * Recursively iterates through a directory checks if files are text files
-	 * adds contents of text files to inverted index
+	 * adds contents of text files to inverted index. Small files are grouped into
+	 * batches so that each task processes many files and performs one merge.
 	 * 
 	 * @param path path of directory
 	 * @param index the Indexer object
@@ -29,6 +47,20 @@ public class QueuedInvertedIndexProcessor {
 	 * @throws NotDirectoryException if given path is not a directory
 	 */
 	public static void processDir(Path path, ThreadSafeInvertedIndex index, WorkQueue queue) throws IOException, NotDirectoryException {
+		Batch batch = new Batch(index, queue);
+		processDir(path, batch);
+		batch.flush();
+	}
+
+	/**
+	 * Recursively iterates through a directory and adds text files to the batch
+	 * 
+	 * @param path path of directory
+	 * @param batch the batch of files to add to
+	 * @throws IOException if IO error occurs
+	 * @throws NotDirectoryException if given path is not a directory
+	 */
+	private static void processDir(Path path, Batch batch) throws IOException, NotDirectoryException {
 		try (DirectoryStream<Path> stream = Files.newDirectoryStream(path);) {
 
 			var iterator = stream.iterator();
@@ -38,11 +70,10 @@ public class QueuedInvertedIndexProcessor {
 				Path newPath = iterator.next();
 				
 				if (Files.isDirectory(newPath)) {
-					processDir(newPath, index, queue);
+					processDir(newPath, batch);
 				}
-				else if (InvertedIndexProcessor.isTextFile(newPath)) {
-					Task task = new Task(newPath, index);
-					queue.execute(task);
+				else if (InvertedIndexProcessor.isIndexable(newPath)) {
+					batch.add(newPath);
 				}
 			}
 		} 
@@ -61,18 +92,79 @@ public class QueuedInvertedIndexProcessor {
 		if (Files.isDirectory(path)) {
 			processDir(path, index, queue);
 		}
+		else if (ArchiveReader.isArchive(path)) {
+			queue.execute(new ArchiveTask(path, index, queue));
+		}
 		else {
-			Task task = new Task(path, index);
+			Task task = new Task(List.of(path), index);
 			queue.execute(task);
 		}
 		
 		queue.finish();
 	}
 
-	/** Processes a single file */
+	/** Groups files into tasks by their cumulative size */
+	private static class Batch {
+		/** The main thread inverted index to use */
+		private final ThreadSafeInvertedIndex index;
+
+		/** The work queue to use */
+		private final WorkQueue queue;
+
+		/** The paths of the files in the current batch */
+		private List<Path> paths;
+
+		/** The total size in bytes of the files in the current batch */
+		private long bytes;
+
+		/**
+		 * Initializes an empty batch
+		 * 
+		 * @param index the inverted index to use
+		 * @param queue the work queue to use
+		 */
+		private Batch(ThreadSafeInvertedIndex index, WorkQueue queue) {
+			this.index = index;
+			this.queue = queue;
+			this.paths = new ArrayList<>();
+			this.bytes = 0;
+		}
+
+		/**
+		 * Adds a file to the batch and submits the batch once it is large enough.
+		 * Archives are read by their own task instead.
+		 * 
+		 * @param path the path of a file
+		 * @throws IOException if unable to get the size of the file
+		 */
+		private void add(Path path) throws IOException {
+			if (ArchiveReader.isArchive(path)) {
+				queue.execute(new ArchiveTask(path, index, queue));
+				return;
+			}
+
+			paths.add(path);
+			bytes += Files.size(path);
+
+			if (bytes >= BATCH_BYTES) {
+				flush();
+			}
+		}
+
+		/** Submits the current batch as a task if it contains any files */
+		private void flush() {
+			if (!paths.isEmpty()) {
+				queue.execute(new Task(paths, index));
+				paths = new ArrayList<>();
+				bytes = 0;
+			}
+		}
+	}
+
+	/** Processes a batch of files */
 	private static class Task implements Runnable {
-		/** The path of the file to process */
-		private final Path path;
+		/** The paths of the files to process */
+		private final List<Path> paths;
 
 		/** The main thread inverted index to use */
 		private final ThreadSafeInvertedIndex index;
@@ -84,13 +176,13 @@ public class QueuedInvertedIndexProcessor {
 		private final Stemmer stemmer;
 
 		/**
-		 * Initializes the path to the file and the thread safe inverted to use
+		 * Initializes the paths to the files and the thread safe inverted to use
 		 * 
-		 * @param path the path of a file
+		 * @param paths the paths of the files
 		 * @param index the inverted index to use
 		 */
-		private Task(Path path, ThreadSafeInvertedIndex index) {
-			this.path = path;
+		private Task(List<Path> paths, ThreadSafeInvertedIndex index) {
+			this.paths = paths;
 			this.index = index;
 			this.stemmer = new SnowballStemmer(ENGLISH);
 			this.local = new InvertedIndex();
@@ -98,13 +190,130 @@ public class QueuedInvertedIndexProcessor {
 
 		@Override
 		public void run() {
+			for (Path path : paths) {
+				try {
+					InvertedIndexProcessor.processFile(path, local, stemmer);
+				}
+				catch (IOException e) {
+					// the rest of the batch is still indexed without the partly read file
+					local.removeLocation(path.toString());
+					log.warn("Unable to process file at path: {}", path);
+					log.catching(Level.DEBUG, e);
+				}
+			}
+
+			index.addAll(local);
+		}
+	}
+
+	/** Reads the text files of an archive and submits them in batches to be processed */
+	private static class ArchiveTask implements Runnable {
+		/** The path of the archive to read */
+		private final Path path;
+
+		/** The main thread inverted index to use */
+		private final ThreadSafeInvertedIndex index;
+
+		/** The work queue to use */
+		private final WorkQueue queue;
+
+		/**
+		 * Initializes the archive to read
+		 * 
+		 * @param path the path of the archive
+		 * @param index the inverted index to use
+		 * @param queue the work queue to use
+		 */
+		private ArchiveTask(Path path, ThreadSafeInvertedIndex index, WorkQueue queue) {
+			this.path = path;
+			this.index = index;
+			this.queue = queue;
+		}
+
+		@Override
+		public void run() {
+			Collector collector = new Collector();
+
 			try {
-				InvertedIndexProcessor.processFile(path, local, stemmer);
-				index.addAll(local);
-			} 
+				ArchiveReader.read(path, collector);
+			}
 			catch (IOException e) {
-				throw new UncheckedIOException(e);
+				log.warn("Unable to read archive at path: {}", path);
+				log.catching(Level.DEBUG, e);
+			}
+			finally {
+				// the entries read before a failure are still indexed
+				collector.flush();
+			}
+		}
+
+		/** Collects entries into batches of text */
+		private class Collector implements ArchiveReader.EntryHandler {
+			/** The text of the entries in the current batch by location */
+			private Map<String, String> batch = new LinkedHashMap<>();
+
+			/** The total size in bytes of the entries in the current batch */
+			private long bytes = 0;
+
+			@Override
+			public void accept(String location, InputStream input) throws IOException {
+				byte[] content = input.readAllBytes();
+				batch.put(location, new String(content, StandardCharsets.UTF_8));
+				bytes += content.length;
+
+				if (bytes >= BATCH_BYTES) {
+					flush();
+				}
+			}
+
+			/** Submits the current batch as a task if it contains any entries */
+			private void flush() {
+				if (!batch.isEmpty()) {
+					queue.execute(new EntryTask(batch, index));
+					batch = new LinkedHashMap<>();
+					bytes = 0;
+				}
 			}
 		}
 	}
+
+	/** Processes a batch of archive entries that were already read */
+	private static class EntryTask implements Runnable {
+		/** The text of the entries by location */
+		private final Map<String, String> entries;
+
+		/** The main thread inverted index to use */
+		private final ThreadSafeInvertedIndex index;
+
+		/**
+		 * Initializes the entries to process
+		 * 
+		 * @param entries the text of the entries by location
+		 * @param index the inverted index to use
+		 */
+		private EntryTask(Map<String, String> entries, ThreadSafeInvertedIndex index) {
+			this.entries = entries;
+			this.index = index;
+		}
+
+		@Override
+		public void run() {
+			InvertedIndex local = new InvertedIndex();
+			Stemmer stemmer = new SnowballStemmer(ENGLISH);
+
+			for (var entry : entries.entrySet()) {
+				try {
+					BufferedReader reader = new BufferedReader(new StringReader(entry.getValue()));
+					InvertedIndexProcessor.processReader(reader, local, entry.getKey(), stemmer);
+				}
+				catch (IOException e) {
+					local.removeLocation(entry.getKey());
+					log.warn("Unable to process archive entry: {}", entry.getKey());
+					log.catching(Level.DEBUG, e);
+				}
+			}
+
+			index.addAll(local);
+		}
+	}
 }
@@ -0,0 +1,239 @@
+package edu.usfca.cs272;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+
+/**
+ * A jetty server that hosts a generated web site for benchmarking the crawler
+ * without using the network. The site is a graph of html pages named
+ * {@code /p0.html} to {@code /pN.html}, where each page links to the next one
+ * so every page can be reached from the first, and to random other pages. The
+ * same settings always generate the same pages and links, while the delay,
+ * errors, redirects, and compression of the responses can be changed to
+ * resemble different servers.
+ *
+ * @see TestSiteServlet
+ * @see CrawlBenchmark
+ *
+ * @author Isaac Meltsner
+ */
+public class TestSite {
+	/** Default number of pages */
+	public static final int PAGES = 1000;
+
+	/** Default number of words on a page */
+	public static final int WORDS = 500;
+
+	/** Default number of links on a page */
+	public static final int LINKS = 10;
+
+	/** The server to use */
+	private final Server server;
+
+	/** The connector that accepts connections */
+	private final ServerConnector connector;
+
+	/** The number of pages */
+	private final int pages;
+
+	/** The number of words on a page */
+	private int words;
+
+	/** The number of links on a page */
+	private int links;
+
+	/** The time in milliseconds each response is delayed */
+	private long latency;
+
+	/** The fraction of requests answered with 503 Service Unavailable */
+	private double errorRate;
+
+	/** The fraction of links that go through a redirect to their page */
+	private double redirectRate;
+
+	/** Whether pages are sent gzip compressed to clients that accept it */
+	private boolean compression;
+
+	/** The seed the pages and links are generated from */
+	private long seed;
+
+	/**
+	 * Initializes a site with the default settings
+	 *
+	 * @param port the port to use, or 0 for any free port
+	 * @param pages the number of pages
+	 */
+	public TestSite(int port, int pages) {
+		this.server = new Server();
+		this.connector = new ServerConnector(server);
+		this.pages = Math.max(1, pages);
+		this.words = WORDS;
+		this.links = LINKS;
+		this.latency = 0;
+		this.errorRate = 0;
+		this.redirectRate = 0;
+		this.compression = false;
+		this.seed = 0;
+
+		connector.setPort(port);
+		server.addConnector(connector);
+	}
+
+	/**
+	 * Sets the size of each page and how many links it has. Must be called before
+	 * the site starts.
+	 *
+	 * @param words the number of words on a page
+	 * @param links the number of links on a page, including the link to the next
+	 *   page
+	 */
+	public void setPageSize(int words, int links) {
+		this.words = Math.max(0, words);
+		this.links = Math.max(1, links);
+	}
+
+	/**
+	 * Sets how the site responds, to resemble a slow or unreliable server. Must
+	 * be called before the site starts.
+	 *
+	 * @param latency the time in milliseconds each response is delayed
+	 * @param errorRate the fraction of requests answered with 503 Service
+	 *   Unavailable, between 0 and 1, chosen the same way for every site with
+	 *   the same seed
+	 * @param redirectRate the fraction of links that go through a redirect to
+	 *   their page, between 0 and 1
+	 * @param compression whether pages are sent gzip compressed to clients that
+	 *   accept it
+	 */
+	public void setResponses(long latency, double errorRate, double redirectRate, boolean compression) {
+		this.latency = Math.max(0, latency);
+		this.errorRate = Math.min(1, Math.max(0, errorRate));
+		this.redirectRate = Math.min(1, Math.max(0, redirectRate));
+		this.compression = compression;
+	}
+
+	/**
+	 * Sets the seed the pages and links are generated from, so that different
+	 * sites of the same size can be generated. Must be called before the site
+	 * starts.
+	 *
+	 * @param seed the seed to use
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Starts the server without waiting for it to stop
+	 *
+	 * @throws Exception if the server fails to start
+	 */
+	public void start() throws Exception {
+		ServletHandler handler = new ServletHandler();
+		handler.addServletWithMapping(new ServletHolder(new TestSiteServlet(this)), "/*");
+		server.setHandler(handler);
+		server.start();
+	}
+
+	/**
+	 * Stops the server
+	 *
+	 * @throws Exception if the server fails to stop
+	 */
+	public void stop() throws Exception {
+		server.stop();
+	}
+
+	/**
+	 * Returns the port the site is running on, which is only known once it
+	 * starts if any free port was requested
+	 *
+	 * @return the port
+	 */
+	public int getPort() {
+		return connector.getLocalPort();
+	}
+
+	/**
+	 * Returns the url of the first page, from which every page can be reached
+	 *
+	 * @return the url of the first page
+	 */
+	public String getUrl() {
+		return "http://localhost:" + getPort() + "/p0.html";
+	}
+
+	/**
+	 * Returns the number of pages
+	 *
+	 * @return the number of pages
+	 */
+	public int getPages() {
+		return pages;
+	}
+
+	/**
+	 * Returns the number of words on a page
+	 *
+	 * @return the number of words
+	 */
+	public int getWords() {
+		return words;
+	}
+
+	/**
+	 * Returns the number of links on a page
+	 *
+	 * @return the number of links
+	 */
+	public int getLinks() {
+		return links;
+	}
+
+	/**
+	 * Returns the time each response is delayed
+	 *
+	 * @return the delay in milliseconds
+	 */
+	public long getLatency() {
+		return latency;
+	}
+
+	/**
+	 * Returns the fraction of requests answered with an error
+	 *
+	 * @return the error rate between 0 and 1
+	 */
+	public double getErrorRate() {
+		return errorRate;
+	}
+
+	/**
+	 * Returns the fraction of links that go through a redirect
+	 *
+	 * @return the redirect rate between 0 and 1
+	 */
+	public double getRedirectRate() {
+		return redirectRate;
+	}
+
+	/**
+	 * Returns whether pages are sent gzip compressed to clients that accept it
+	 *
+	 * @return true if pages are compressed
+	 */
+	public boolean isCompressed() {
+		return compression;
+	}
+
+	/**
+	 * Returns the seed the pages and links are generated from
+	 *
+	 * @return the seed
+	 */
+	public long getSeed() {
+		return seed;
+	}
+}
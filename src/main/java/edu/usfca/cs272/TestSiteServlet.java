@@ -0,0 +1,229 @@
+package edu.usfca.cs272;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet that generates the pages of a {@link TestSite}. Each page is
+ * generated from the seed of the site and its number, so its words and links
+ * are the same on every request. Links to {@code /r/pN.html} answer with a
+ * redirect to {@code /pN.html}. Whether a request fails is decided by the seed,
+ * the page, and how many times the page was requested before, so the same
+ * crawl sees the same errors every time.
+ *
+ * @author Isaac Meltsner
+ */
+public class TestSiteServlet extends HttpServlet {
+	/** Not used */
+	private static final long serialVersionUID = 1L;
+
+	/** The paths of the pages, and of the redirects to them */
+	private static final Pattern PATH = Pattern.compile("/(r/)?p(\\d{1,9})\\.html");
+
+	/** The syllables the words of the pages are made of */
+	private static final String[] SYLLABLES = {
+			"ba", "co", "de", "fi", "ga", "hu", "jo", "ka", "le", "mi",
+			"no", "pa", "qui", "ro", "su", "ta", "ve", "wo", "xe", "zu"
+	};
+
+	/** The endings added to some words, so the stemmer has work to do */
+	private static final String[] ENDINGS = { "s", "ed", "ing", "ly", "ness", "er" };
+
+	/** The number of different words on the site */
+	private static final int VOCABULARY = 5000;
+
+	/** The number of words in a paragraph */
+	private static final int PARAGRAPH = 50;
+
+	/** The site to generate */
+	private final TestSite site;
+
+	/** The words the pages are made of, from the most to the least common */
+	private final String[] vocabulary;
+
+	/** The number of times each page was requested */
+	private final AtomicIntegerArray requests;
+
+	/**
+	 * Initializes the servlet for a site
+	 *
+	 * @param site the site to generate
+	 */
+	public TestSiteServlet(TestSite site) {
+		this.site = site;
+		this.vocabulary = createVocabulary(new Random(site.getSeed()));
+		this.requests = new AtomicIntegerArray(site.getPages());
+	}
+
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		Matcher matcher = PATH.matcher(request.getRequestURI());
+		int page = matcher.matches() ? Integer.parseInt(matcher.group(2)) : -1;
+
+		if (page < 0 || page >= site.getPages()) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+
+		if (site.getLatency() > 0) {
+			try {
+				Thread.sleep(site.getLatency());
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		if (site.getErrorRate() > 0 && fails(page, requests.getAndIncrement(page))) {
+			response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			response.setHeader("Retry-After", "1");
+			response.setContentLength(0);
+			return;
+		}
+
+		String location = "/p" + page + ".html";
+
+		if (matcher.group(1) != null) {
+			response.setStatus(HttpServletResponse.SC_MOVED_PERMANENTLY);
+			response.setHeader("Location", location);
+			send(request, response, "<html><body><a href=\"" + location + "\">Moved</a></body></html>");
+			return;
+		}
+
+		response.setStatus(HttpServletResponse.SC_OK);
+		send(request, response, generate(page));
+	}
+
+	/**
+	 * Decides whether a request for a page is answered with an error
+	 *
+	 * @param page the number of the page
+	 * @param count the number of times the page was requested before
+	 * @return true if the request fails
+	 */
+	private boolean fails(int page, int count) {
+		long request = ((long) page << 32) | count;
+		return new SplittableRandom(site.getSeed() * 0x9e3779b97f4a7c15L + request).nextDouble() < site.getErrorRate();
+	}
+
+	/**
+	 * Sends html as the content of a response, gzip compressed if the site uses
+	 * compression and the client accepts it
+	 *
+	 * @param request the request
+	 * @param response the response
+	 * @param html the html to send
+	 * @throws IOException if an IO error occurs
+	 */
+	private void send(HttpServletRequest request, HttpServletResponse response, String html) throws IOException {
+		byte[] content = html.getBytes(UTF_8);
+		String accepted = request.getHeader("Accept-Encoding");
+
+		if (site.isCompressed() && accepted != null && accepted.toLowerCase().contains("gzip")) {
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 2);
+
+			try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+				gzip.write(content);
+			}
+
+			content = compressed.toByteArray();
+			response.setHeader("Content-Encoding", "gzip");
+		}
+
+		response.setContentType("text/html; charset=UTF-8");
+		response.setContentLength(content.length);
+
+		OutputStream out = response.getOutputStream();
+		out.write(content);
+		out.flush();
+	}
+
+	/**
+	 * Generates the html of a page. The links are chosen before the words, so
+	 * the links of a page stay the same when only the size of the pages changes.
+	 *
+	 * @param page the number of the page
+	 * @return the html of the page
+	 */
+	public String generate(int page) {
+		Random random = new Random(site.getSeed() * 31 + page);
+		int pages = site.getPages();
+
+		StringBuilder links = new StringBuilder();
+
+		for (int i = 0; i < site.getLinks(); i++) {
+			// the first link goes to the next page so every page can be reached
+			int target = i == 0 ? (page + 1) % pages : random.nextInt(pages);
+			boolean redirect = random.nextDouble() < site.getRedirectRate();
+
+			links.append("<li><a href=\"").append(redirect ? "/r/p" : "/p").append(target).append(".html\">Page ");
+			links.append(target).append("</a></li>\n");
+		}
+
+		StringBuilder html = new StringBuilder();
+		html.append("<!DOCTYPE html>\n<html>\n<head>\n<title>Page ").append(page).append("</title>\n");
+		html.append("<style>p { margin: 1em; }</style>\n");
+		html.append("<script>var page = ").append(page).append(";</script>\n");
+		html.append("</head>\n<body>\n<!-- generated page -->\n<h1>Page ").append(page).append("</h1>\n");
+
+		for (int i = 0; i < site.getWords(); i++) {
+			if (i % PARAGRAPH == 0) {
+				html.append(i == 0 ? "<p>" : "</p>\n<p>");
+			}
+			else {
+				html.append(' ');
+			}
+
+			// skewed towards the start of the vocabulary, like the words of real text
+			html.append(vocabulary[(int) (vocabulary.length * Math.pow(random.nextDouble(), 3))]);
+		}
+
+		if (site.getWords() > 0) {
+			html.append("</p>\n");
+		}
+
+		html.append("<ul>\n").append(links).append("</ul>\n</body>\n</html>\n");
+		return html.toString();
+	}
+
+	/**
+	 * Makes up the words the pages are made of
+	 *
+	 * @param random the source of randomness to use
+	 * @return the words
+	 */
+	private static String[] createVocabulary(Random random) {
+		String[] words = new String[VOCABULARY];
+
+		for (int i = 0; i < words.length; i++) {
+			StringBuilder word = new StringBuilder();
+			int syllables = 1 + random.nextInt(4);
+
+			for (int j = 0; j < syllables; j++) {
+				word.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+			}
+
+			if (random.nextInt(3) == 0) {
+				word.append(ENDINGS[random.nextInt(ENDINGS.length)]);
+			}
+
+			words[i] = word.toString();
+		}
+
+		return words;
+	}
+}
@@ -216,6 +216,65 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
         }
     }
 
+    /**
+     * Adds all of the words and locations of another index the same as
+     * {@link #addAll(InvertedIndex)}, and measures how long it had to wait for
+     * other threads using this index first
+     *
+     * @param other the index to add
+     * @return the time in nanoseconds spent waiting for the lock
+     */
+    public long addAllTimed(InvertedIndex other) {
+        long start = System.nanoTime();
+        lock.writeLock().lock();
+        long waited = System.nanoTime() - start;
+
+        try {
+            super.addAll(other);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+
+        return waited;
+    }
+
+    @Override
+    public boolean removeLocation(String location) {
+        lock.writeLock().lock();
+
+        try {
+            return super.removeLocation(location);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void replaceLocation(String location, List<String> words) {
+        lock.writeLock().lock();
+
+        try {
+            super.replaceLocation(location, words);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void replaceLocation(String location, InvertedIndex other) {
+        lock.writeLock().lock();
+
+        try {
+            super.replaceLocation(location, other);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
     @Override
     public void writeCounts(Path path) throws IOException {
         lock.readLock().lock();
@@ -0,0 +1,281 @@
+package edu.usfca.cs272;
+
+import static opennlp.tools.stemmer.snowball.SnowballStemmer.ALGORITHM.ENGLISH;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import opennlp.tools.stemmer.Stemmer;
+import opennlp.tools.stemmer.snowball.SnowballStemmer;
+
+/**
+ * Indexes the HTML pages recorded in WARC archive files using the same
+ * cleaning and indexing steps as the {@link WebCrawler}, without fetching
+ * anything from the network. Gzip compressed archives are supported.
+ *
+ * @see <a href="https://iipc.github.io/warc-specifications/">WARC Specifications</a>
+ *
+ * @author Isaac Meltsner
+ */
+public class WarcProcessor {
+	/** Logger used for this class */
+	private static final Logger log = LogManager.getLogger();
+
+	/**
+	 * Processes path according to path type. Directories are searched recursively
+	 * for WARC files.
+	 *
+	 * @param path the path to process
+	 * @param index the inverted index
+	 * @param queue the work queue to use
+	 * @throws IOException if IOError occurs
+	 * @throws NullPointerException if null pointer is found
+	 */
+	public static void process(Path path, ThreadSafeInvertedIndex index, WorkQueue queue) throws IOException, NullPointerException {
+		Set<String> seen = new HashSet<>();
+
+		if (Files.isDirectory(path)) {
+			processDir(path, index, queue, seen);
+		}
+		else {
+			processFile(path, index, queue, seen);
+		}
+
+		queue.finish();
+	}
+
+	/**
+	 * Checks to see if the given path is a WARC file
+	 *
+	 * @param path the path to check
+	 * @return true if path is a WARC file false otherwise
+	 */
+	public static boolean isWarcFile(Path path) {
+		String lowerCasePath = path.toString().toLowerCase();
+		return lowerCasePath.endsWith(".warc") || lowerCasePath.endsWith(".warc.gz");
+	}
+
+	/**
+	 * Recursively iterates through a directory and processes any WARC files
+	 *
+	 * @param path path of directory
+	 * @param index the inverted index
+	 * @param queue the work queue to use
+	 * @param seen the target urls already indexed
+	 * @throws IOException if IO error occurs
+	 */
+	private static void processDir(Path path, ThreadSafeInvertedIndex index, WorkQueue queue, Set<String> seen) throws IOException {
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+			for (Path newPath : stream) {
+				if (Files.isDirectory(newPath)) {
+					processDir(newPath, index, queue, seen);
+				}
+				else if (isWarcFile(newPath)) {
+					processFile(newPath, index, queue, seen);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the records of a WARC file, submitting the successful HTML responses
+	 * to the work queue in batches. Only the first response for each target url is
+	 * indexed.
+	 *
+	 * @param path the path of the WARC file
+	 * @param index the inverted index
+	 * @param queue the work queue to use
+	 * @param seen the target urls already indexed
+	 * @throws IOException if IO error occurs
+	 */
+	private static void processFile(Path path, ThreadSafeInvertedIndex index, WorkQueue queue, Set<String> seen) throws IOException {
+		// urls are not used as keys, since their hashCode may resolve the host
+		List<Map.Entry<URL, String>> batch = new ArrayList<>();
+		long bytes = 0;
+
+		// GZIPInputStream reads every member of a multi-member gzip file
+		try (InputStream input = new BufferedInputStream(ArchiveReader.open(path))) {
+			Map<String, String> headers;
+
+			while ((headers = readHeaders(input, "WARC/")) != null) {
+				int length = Integer.parseInt(headers.getOrDefault("content-length", "0").strip());
+				byte[] block = input.readNBytes(length);
+
+				if (!"response".equals(headers.get("warc-type"))) {
+					continue;
+				}
+
+				String target = headers.get("warc-target-uri");
+				String html = null;
+
+				try {
+					html = target != null && !seen.contains(target) ? parseResponse(block) : null;
+				}
+				catch (IOException | NumberFormatException e) {
+					// a damaged recording of one response does not affect the others
+					log.debug("Skipping damaged response for {}.", target);
+				}
+
+				if (html != null && seen.add(target)) {
+					try {
+						batch.add(Map.entry(new URL(LinkFinder.removeFragment(target.replaceAll("^<|>$", ""))), html));
+						bytes += block.length;
+					}
+					catch (MalformedURLException e) {
+						continue;
+					}
+				}
+
+				if (bytes >= QueuedInvertedIndexProcessor.BATCH_BYTES) {
+					queue.execute(new Task(batch, index));
+					batch = new ArrayList<>();
+					bytes = 0;
+				}
+			}
+		}
+
+		if (!batch.isEmpty()) {
+			queue.execute(new Task(batch, index));
+		}
+	}
+
+	/**
+	 * Reads a block of header lines up to the first blank line. Any blank lines
+	 * before the first line are skipped. The first line is stored under the
+	 * {@code null} key, and header names are stored in lowercase.
+	 *
+	 * @param input the input to read from
+	 * @param start the expected start of the first line, or {@code null} for any
+	 * @return the headers or {@code null} if there are no more headers
+	 * @throws IOException if IO error occurs or the first line is unexpected
+	 */
+	private static Map<String, String> readHeaders(InputStream input, String start) throws IOException {
+		String line = HttpsFetcher.readLine(input);
+
+		while (line != null && line.isBlank()) {
+			line = HttpsFetcher.readLine(input);
+		}
+
+		if (line == null) {
+			return null;
+		}
+
+		if (start != null && !line.startsWith(start)) {
+			throw new IOException("Malformed WARC record: " + line);
+		}
+
+		Map<String, String> headers = new HashMap<>();
+		headers.put(null, line);
+
+		while ((line = HttpsFetcher.readLine(input)) != null && !line.isBlank()) {
+			String[] split = line.split(":\\s*", 2);
+
+			if (split.length == 2) {
+				headers.putIfAbsent(split[0].toLowerCase(), split[1]);
+			}
+		}
+
+		return headers;
+	}
+
+	/**
+	 * Parses a recorded HTTP response, returning the body if the status code is 200
+	 * and the content type is HTML. Chunked bodies are decoded, and compressed
+	 * bodies are decoded with {@link HtmlFetcher#decode(byte[], String)}.
+	 *
+	 * @param block the recorded HTTP response
+	 * @return the html or {@code null} if the response is not a successful HTML page
+	 * @throws IOException if unable to decode the body
+	 */
+	private static String parseResponse(byte[] block) throws IOException {
+		InputStream input = new ByteArrayInputStream(block);
+		Map<String, String> headers = readHeaders(input, null);
+
+		if (headers == null) {
+			return null;
+		}
+
+		Map<String, List<String>> fields = new HashMap<>();
+		headers.forEach((name, value) -> fields.put(name == null ? null : canonical(name), List.of(value)));
+
+		if (HtmlFetcher.getStatusCode(fields) != 200 || !HtmlFetcher.isHtml(fields)) {
+			return null;
+		}
+
+		if ("chunked".equalsIgnoreCase(headers.getOrDefault("transfer-encoding", "").strip())) {
+			input = new ByteArrayInputStream(HttpsFetcher.dechunk(input));
+		}
+
+		// decoded the same way as a live crawl, including raw deflate data
+		return HtmlFetcher.decode(input.readAllBytes(), headers.get("content-encoding"));
+	}
+
+	/**
+	 * Converts a lowercase header name to the capitalization used by
+	 * {@link HttpsFetcher#getHeaderFields(java.io.BufferedReader)}, such as
+	 * "Content-Type".
+	 *
+	 * @param name the lowercase header name
+	 * @return the capitalized header name
+	 */
+	private static String canonical(String name) {
+		StringBuilder builder = new StringBuilder(name);
+
+		for (int i = 0; i < builder.length(); i++) {
+			if (i == 0 || builder.charAt(i - 1) == '-') {
+				builder.setCharAt(i, Character.toUpperCase(builder.charAt(i)));
+			}
+		}
+
+		return builder.toString();
+	}
+
+	/** Indexes a batch of recorded pages */
+	private static class Task implements Runnable {
+		/** The urls of the pages along with their html */
+		private final List<Map.Entry<URL, String>> pages;
+
+		/** The main thread inverted index to use */
+		private final ThreadSafeInvertedIndex index;
+
+		/**
+		 * Initializes the pages to index
+		 *
+		 * @param pages the urls of the pages along with their html
+		 * @param index the inverted index to use
+		 */
+		private Task(List<Map.Entry<URL, String>> pages, ThreadSafeInvertedIndex index) {
+			this.pages = pages;
+			this.index = index;
+		}
+
+		@Override
+		public void run() {
+			InvertedIndex local = new InvertedIndex();
+			Stemmer stemmer = new SnowballStemmer(ENGLISH);
+
+			for (var page : pages) {
+				// links are not followed since every page comes from the archive
+				WebCrawler.processHtml(page.getKey(), page.getValue(), local, stemmer, links -> {});
+			}
+
+			index.addAll(local);
+		}
+	}
+}
@@ -2,11 +2,23 @@ package edu.usfca.cs272;
 
 import static opennlp.tools.stemmer.snowball.SnowballStemmer.ALGORITHM.ENGLISH;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.HashSet;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import opennlp.tools.stemmer.Stemmer;
 import opennlp.tools.stemmer.snowball.SnowballStemmer;
@@ -17,50 +29,354 @@ import opennlp.tools.stemmer.snowball.SnowballStemmer;
  * @author Isaac Meltsner
  */
 public class WebCrawler {
+	/** Default number of pages crawled between checkpoints */
+	public static final int CHECKPOINT_PAGES = 1000;
+
+	/** Default number of times a url is tried again after a transient failure */
+	public static final int RETRIES = 2;
+
+	/** Default time in milliseconds to wait before the first retry of a url */
+	public static final long BACKOFF = 1000;
+
+	/** Default number of pages fetched at once */
+	public static final int FETCHERS = 16;
+
+	/** Default maximum number of fetched pages waiting or being indexed */
+	public static final int BACKLOG = 64;
+
 	/** The total number of links to crawl */
-	private int maxLinks;
+	private final int maxLinks;
 
 	/** The intial url to crawl */
 	private final String seed;
 
-	/** The work queue to use */
+	/** The work queue used to clean, parse, and index pages */
 	private final WorkQueue queue;
 
-	/** A list of all the urls to crawl */
-	private final Set<URL> URLs;
+	/** The urls seen and waiting to be crawled */
+	private CrawlFrontier frontier;
 
 	/** The inverted index to use */
 	private final ThreadSafeInvertedIndex index;
 
+	/** The open connections reused between pages on the same host */
+	private final ConnectionPool pool;
+
+	/** The local cache of fetched pages, or null if pages are not cached */
+	private FetchCache cache;
+
+	/** Finds pages that duplicate an indexed page, or null if every page is indexed */
+	private DuplicateDetector duplicates;
+
+	/** The asynchronous fetcher, or null if pages are fetched by the work queue */
+	private AsyncHtmlFetcher async;
+
+	/** The maximum number of characters read from each page when streaming, or 0 if pages are cleaned with regular expressions */
+	private long maxPage;
+
+	/** The checkpoint the crawl is saved to, or null if the crawl is not saved */
+	private CrawlCheckpoint checkpoint;
+
+	/** The number of pages crawled between checkpoints */
+	private int interval;
+
+	/** The number of urls scheduled and not finished yet, guarded by the checkpoint lock */
+	private int active;
+
+	/** The number of pages finished since the last checkpoint, guarded by the checkpoint lock */
+	private int crawled;
+
+	/** Whether scheduling is paused to save a checkpoint, guarded by the checkpoint lock */
+	private boolean paused;
+
+	/** The time in nanoseconds of the next scheduling after a host delay, guarded by the lock */
+	private long wakeup;
+
+	/** The maximum number of urls fetched at once from each host, or 0 for no limit */
+	private int maxConnections;
+
+	/** The minimum time in milliseconds between requests to each host */
+	private long delay;
+
+	/** The number of times a url is tried again after a transient failure */
+	private int retries;
+
+	/** The time in milliseconds to wait before the first retry of a url, doubled for each retry after */
+	private long backoff;
+
+	/** The number of pages fetched at once, by worker threads or as asynchronous requests */
+	private int fetchers;
+
+	/** The maximum number of fetched pages waiting or being indexed */
+	private int backlog;
+
+	/** The stage that fetches pages, created when the crawl starts */
+	private CrawlStage fetching;
+
+	/** The stage that cleans, parses, and indexes fetched pages, created when the crawl starts */
+	private CrawlStage processing;
+
+	/** The metrics of the crawl, created when the crawl starts */
+	private CrawlMetrics metrics;
+
+	/** The time in milliseconds between summaries of the metrics, or 0 for none until the end */
+	private long reportInterval;
+
+	/** The file the periodic summaries are written to, or null to only log them */
+	private Path reportOutput;
+
+	/** How the urls found at each depth are scored, or null to crawl urls as they are found */
+	private CrawlFrontier.Priority priority;
+
+	/** The number of times scheduling was asked for since it last went over the frontier */
+	private final AtomicInteger dispatches;
+
+	/** The lock used to pause the crawl while a checkpoint is saved and to time host delays */
+	private final Object lock;
+
+	/** Logger used for this class */
+	private static final Logger log = LogManager.getLogger();
+
 	/**
 	 * Initializes the web crawler with a seed url, a work queue, an inverted index, and a max links to crawl
 	 * 
 	 * @param seed the seed url to start the crawl
 	 * @param maxLinks the total number of links to crawl
-	 * @param queue the work queue to use
+	 * @param queue the work queue used to clean, parse, and index pages
 	 * @param index the inverted index to use
 	 */
 	public WebCrawler(String seed, int maxLinks, WorkQueue queue, ThreadSafeInvertedIndex index) {
 		this.seed = LinkFinder.removeFragment(seed);
 		this.maxLinks = maxLinks > 0 ? maxLinks : 1;
 		this.queue = queue;
-		this.URLs = new HashSet<>();
+		this.frontier = new CrawlFrontier(this.maxLinks);
 		this.index = index;
+		this.pool = new ConnectionPool();
+		this.retries = RETRIES;
+		this.backoff = BACKOFF;
+		this.fetchers = FETCHERS;
+		this.backlog = BACKLOG;
+		this.reportInterval = CrawlMetrics.INTERVAL;
+		this.dispatches = new AtomicInteger(0);
+		this.lock = new Object();
 	}
 
 	/**
 	 * Initializes the web crawler with a seed url, a work queue, and an inverted index
 	 * 
 	 * @param seed the seed url to start the crawl
-	 * @param queue the work queue to use
+	 * @param queue the work queue used to clean, parse, and index pages
 	 * @param index the inverted index to use
 	 */
 	public WebCrawler(String seed, WorkQueue queue, ThreadSafeInvertedIndex index) {
 		this.seed = LinkFinder.removeFragment(seed);
 		this.maxLinks = 1;
 		this.queue = queue;
-		this.URLs = new HashSet<>();
+		this.frontier = new CrawlFrontier(this.maxLinks);
 		this.index = index;
+		this.pool = new ConnectionPool();
+		this.retries = RETRIES;
+		this.backoff = BACKOFF;
+		this.fetchers = FETCHERS;
+		this.backlog = BACKLOG;
+		this.reportInterval = CrawlMetrics.INTERVAL;
+		this.dispatches = new AtomicInteger(0);
+		this.lock = new Object();
+	}
+
+	/**
+	 * Sets the local cache of fetched pages. Pages in the cache are only
+	 * downloaded again if the server reports they changed, and unchanged pages
+	 * that are already in the index are not indexed again. Must be called before
+	 * the crawl starts.
+	 * 
+	 * @param cache the cache to use, or null to always download pages
+	 */
+	public void setCache(FetchCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Sets the detector used to skip pages whose text duplicates a page that was
+	 * already indexed. The links of skipped pages are still crawled. Must be
+	 * called before the crawl starts.
+	 * 
+	 * @param duplicates the detector to use, or null to index every page
+	 * 
+	 * @see DuplicateDetector#getDuplicates()
+	 */
+	public void setDuplicateDetector(DuplicateDetector duplicates) {
+		this.duplicates = duplicates;
+	}
+
+	/**
+	 * Sets the asynchronous fetcher to use. Pages are then fetched without
+	 * occupying the work queue, which is only used to index each page once it
+	 * arrives. Must be called before the crawl starts.
+	 * 
+	 * @param async the fetcher to use, or null to fetch pages with the work queue
+	 */
+	public void setAsync(AsyncHtmlFetcher async) {
+		this.async = async;
+	}
+
+	/**
+	 * Sets whether pages are read with the streaming tokenizer instead of being
+	 * cleaned with regular expressions. When pages are neither cached nor
+	 * fetched asynchronously, they are indexed as they are downloaded instead of
+	 * being held in memory first. Must be called before the crawl starts.
+	 * 
+	 * @param maxPage the maximum number of characters read from each page, or 0
+	 *   to clean pages with regular expressions
+	 * 
+	 * @see HtmlTokenizer
+	 */
+	public void setStreaming(long maxPage) {
+		this.maxPage = Math.max(0, maxPage);
+	}
+
+	/**
+	 * Sets whether the urls seen are remembered in a Bloom filter instead of an
+	 * exact set, which takes a fraction of the memory in large crawls but skips
+	 * a few new urls that are mistaken for ones already seen. Must be called
+	 * before the crawl starts.
+	 * 
+	 * @param falsePositives the chance a new url is skipped, or 0 to use an exact set
+	 * 
+	 * @see CrawlFrontier
+	 */
+	public void setBloomFilter(double falsePositives) {
+		this.frontier = falsePositives > 0 ? new CrawlFrontier(maxLinks, falsePositives) : new CrawlFrontier(maxLinks);
+	}
+
+	/**
+	 * Limits how often each host is crawled. The hosts take turns either way, and
+	 * urls of other hosts are crawled while a host has to wait. Must be called
+	 * before the crawl starts.
+	 * 
+	 * @param maxConnections the maximum number of urls fetched at once from each
+	 *   host, or 0 for no limit
+	 * @param delay the minimum time in milliseconds between requests to each host
+	 * 
+	 * @see CrawlFrontier#setPoliteness(int, long)
+	 */
+	public void setPoliteness(int maxConnections, long delay) {
+		this.maxConnections = Math.max(0, maxConnections);
+		this.delay = Math.max(0, delay);
+	}
+
+	/**
+	 * Sets how often urls are tried again after a transient failure, such as a
+	 * timeout or an overloaded server. A url waits longer before each retry
+	 * without occupying a worker, and counts against the limits of its host
+	 * while it waits. Must be called before the crawl starts.
+	 * 
+	 * @param retries the number of times a url is tried again, or 0 to never
+	 *   try again
+	 * @param backoff the time in milliseconds to wait before the first retry,
+	 *   which is doubled for each retry after
+	 * 
+	 * @see HtmlFetcher#isTransient(Throwable)
+	 */
+	public void setRetries(int retries, long backoff) {
+		this.retries = Math.max(0, retries);
+		this.backoff = Math.max(0, backoff);
+	}
+
+	/**
+	 * Sizes the stages of the crawl. Pages are fetched by their own workers, or
+	 * as asynchronous requests, and then passed to the work queue of the crawler
+	 * to be cleaned, parsed, and indexed. No more pages are fetched while too
+	 * many fetched pages are waiting, so the two stages can be sized separately
+	 * without pages piling up in memory. Must be called before the crawl starts.
+	 * 
+	 * @param fetchers the number of pages fetched at once
+	 * @param backlog the maximum number of fetched pages waiting or being indexed
+	 * 
+	 * @see CrawlStage
+	 */
+	public void setPipeline(int fetchers, int backlog) {
+		this.fetchers = Math.max(1, fetchers);
+		this.backlog = Math.max(1, backlog);
+	}
+
+	/**
+	 * Sets how often the metrics of the crawl are summarized while it runs. Each
+	 * summary is logged, and written to a file if one is given. Must be called
+	 * before the crawl starts.
+	 * 
+	 * @param interval the time in milliseconds between summaries, or 0 for no
+	 *   summaries until the crawl is done
+	 * @param output the file to write each summary to, or null to only log them
+	 * 
+	 * @see #getMetrics()
+	 */
+	public void setReporting(long interval, Path output) {
+		this.reportInterval = Math.max(0, interval);
+		this.reportOutput = output;
+	}
+
+	/**
+	 * Returns the metrics of the last crawl, which keep changing while it runs
+	 * 
+	 * @return the metrics, or null if no crawl was started
+	 */
+	public CrawlMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Sets how the urls found are prioritized. With a priority, the crawl goes
+	 * breadth first one depth at a time, and when the budget runs out at a depth
+	 * the urls with the highest scores are crawled. The same pages are then
+	 * crawled on every run. Must be called before the crawl starts.
+	 * 
+	 * @param priority how the urls found at each depth are scored, or null to
+	 *   crawl urls in the order they are found
+	 * 
+	 * @see CrawlFrontier#setPriority(CrawlFrontier.Priority)
+	 */
+	public void setPriority(CrawlFrontier.Priority priority) {
+		this.priority = priority;
+	}
+
+	/**
+	 * Sets the checkpoint the crawl is saved to. Every so many pages, scheduling
+	 * pauses until the pages in progress are finished, and the frontier and the
+	 * index are saved. The finished crawl is saved as well. Must be called before
+	 * the crawl starts.
+	 * 
+	 * @param checkpoint the checkpoint to save to, or null to not save the crawl
+	 * @param interval the number of pages crawled between checkpoints
+	 * 
+	 * @see #resume()
+	 */
+	public void setCheckpoint(CrawlCheckpoint checkpoint, int interval) {
+		this.checkpoint = checkpoint;
+		this.interval = Math.max(1, interval);
+	}
+
+	/**
+	 * Restores the frontier, the index, and the duplicates found from the
+	 * checkpoint, if one was saved, so that the crawl continues where it left off
+	 * instead of starting over. The restored frontier keeps remembering urls the
+	 * same way it did when it was saved. Must be called after the checkpoint and
+	 * the duplicate detector are set and before the crawl starts.
+	 * 
+	 * @return true if the crawl was restored, false if there is no checkpoint
+	 * @throws IOException if unable to read the checkpoint
+	 * 
+	 * @see #setCheckpoint(CrawlCheckpoint, int)
+	 */
+	public boolean resume() throws IOException {
+		CrawlFrontier restored = checkpoint != null ? checkpoint.restore(maxLinks, index, duplicates) : null;
+
+		if (restored == null) {
+			return false;
+		}
+
+		this.frontier = restored;
+		return true;
 	}
 
 	/**
@@ -82,15 +398,306 @@ public class WebCrawler {
 	 */
 	public void crawl(String urlString) throws MalformedURLException, NullPointerException {
 		URL url = new URL(urlString);
+		WorkQueue workers = async == null ? new WorkQueue(fetchers) : null;
+
+		fetching = new CrawlStage("fetch", workers, fetchers, this::dispatch);
+		processing = new CrawlStage("index", queue, backlog, this::dispatch);
+		metrics = new CrawlMetrics(fetching, processing);
+		metrics.start(reportInterval, reportOutput);
+
+		frontier.setPoliteness(maxConnections, delay);
+		frontier.setPriority(priority);
+		frontier.add(url);
+		dispatch();
+
+		// waits for the fetches in progress as well as the queued tasks
+		try {
+			frontier.await();
+
+			if (checkpoint != null) {
+				save();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		if (workers != null) {
+			workers.join();
+		}
+
+		pool.close();
+		metrics.stop();
+		log.info("Crawled {}", metrics);
+		log.info("Stage {}", fetching);
+		log.info("Stage {}", processing);
+	}
+
+	/**
+	 * Fetches a url on a slot claimed in the fetch stage, either with a fetch
+	 * worker or with the asynchronous fetcher, and passes the page on to be
+	 * indexed once it arrives
+	 * 
+	 * @param url the url to crawl
+	 * @param attempt the number of times the url was tried before
+	 */
+	private void schedule(URL url, int attempt) {
+		if (async == null) {
+			fetching.run(new Fetch(url, attempt));
+			return;
+		}
+
+		long start = System.nanoTime();
+
+		async.fetch(url, 3, cache != null ? cache.get(url) : null).whenComplete((page, error) -> {
+			metrics.fetched(System.nanoTime() - start);
+
+			boolean retrying = false;
+
+			// passed on before the slot is freed so the next fetches see the backlog
+			if (page != null) {
+				processing.submit(new Task(url, index, page));
+			}
+			else if (error == null || !(retrying = retry(url, attempt, error))) {
+				finished(url);
+			}
+
+			// a url waiting to be retried keeps its host busy
+			if (!retrying) {
+				frontier.fetched(url);
+			}
+
+			fetching.done(start);
+		});
+	}
+
+	/**
+	 * Schedules a url again after a transient failure once its backoff is over,
+	 * unless it was tried too often already. The url is not finished while it
+	 * waits, so the crawl and its checkpoints wait for it as well.
+	 * 
+	 * @param url the url that failed
+	 * @param attempt the number of times the url was tried before
+	 * @param error the transient failure
+	 * @return true if the url will be tried again, false if it should be finished
+	 */
+	private boolean retry(URL url, int attempt, Throwable error) {
+		if (attempt >= retries) {
+			log.debug("Gave up on {} after {} attempts: {}", url, attempt + 1, error.toString());
+			metrics.failed(false);
+			return false;
+		}
+
+		// jitter keeps the urls that failed together from being retried together
+		long wait = backoff << Math.min(attempt, 20);
+		wait += ThreadLocalRandom.current().nextLong(wait / 2 + 1);
+
+		log.debug("Retrying {} in {} ms: {}", url, wait, error.toString());
+		metrics.failed(true);
+
+		// the url was already taken from the frontier, so it is fetched even if the stage is full
+		CompletableFuture.delayedExecutor(wait, TimeUnit.MILLISECONDS).execute(() -> {
+			fetching.admit();
+
+			try {
+				schedule(url, attempt + 1);
+			}
+			catch (RuntimeException e) {
+				abandon(url, e);
+			}
+		});
+
+		return true;
+	}
+
+	/**
+	 * Gives up on a url whose fetch could not be started, and frees its slot in
+	 * the fetch stage and its host
+	 * 
+	 * @param url the url that could not be scheduled
+	 * @param error the reason it could not be scheduled
+	 */
+	private void abandon(URL url, RuntimeException error) {
+		log.warn("Unable to schedule url: {}", url);
+		log.catching(Level.DEBUG, error);
+
+		fetching.cancel();
+		frontier.fetched(url);
+		finished(url);
+	}
+
+	/**
+	 * Marks a url as completely fetched and indexed, and schedules the urls its
+	 * host was holding back. A checkpoint that is due is saved by the work queue
+	 * first, since this may be called by a thread that handles responses.
+	 * 
+	 * @param url the url that was crawled
+	 */
+	private void finished(URL url) {
+		if (checkpoint != null && pause()) {
+			queue.execute(() -> {
+				save();
+				complete(url);
+			});
+
+			return;
+		}
+
+		complete(url);
+	}
+
+	/**
+	 * Marks a url as finished in the frontier and schedules the next urls
+	 * 
+	 * @param url the url that was crawled
+	 */
+	private void complete(URL url) {
+		// marked after saving so the crawl does not end while a checkpoint is saved
+		metrics.finished();
+		frontier.finished(url);
+		dispatch();
+	}
+
+	/**
+	 * Counts a finished page and pauses scheduling once enough pages were crawled
+	 * since the last checkpoint
+	 * 
+	 * @return true if scheduling is paused and no page is in progress anymore
+	 */
+	private boolean pause() {
+		synchronized (lock) {
+			active--;
+			crawled++;
+
+			if (crawled >= interval) {
+				paused = true;
+			}
+
+			return paused && active == 0;
+		}
+	}
 
-		synchronized (URLs) {
-			if (!URLs.contains(url))
-				URLs.add(url);
+	/**
+	 * Saves a checkpoint of the crawl and resumes scheduling. Must only be called
+	 * while no page is in progress.
+	 */
+	private void save() {
+		try {
+			checkpoint.save(frontier, index, duplicates);
+		}
+		catch (IOException e) {
+			log.warn("Unable to save checkpoint at path: {}", checkpoint.getPath());
+			log.catching(Level.DEBUG, e);
 		}
 
-		Task task = new Task(url, index);
-		queue.execute(task);
-		queue.finish();
+		synchronized (lock) {
+			crawled = 0;
+			paused = false;
+		}
+	}
+
+	/**
+	 * Removes the next url to schedule from the frontier, unless scheduling is
+	 * paused to save a checkpoint
+	 * 
+	 * @return the next url, or null if there is none or scheduling is paused
+	 */
+	private URL next() {
+		if (checkpoint == null) {
+			return frontier.poll();
+		}
+
+		synchronized (lock) {
+			if (paused) {
+				return null;
+			}
+
+			URL next = frontier.poll();
+
+			if (next != null) {
+				active++;
+			}
+
+			return next;
+		}
+	}
+
+	/**
+	 * Schedules the urls waiting in the frontier that may be crawled right now,
+	 * as long as there is room in the fetch stage and the fetched pages are not
+	 * backed up, and schedules the rest again once the next host delay is over.
+	 * Only one thread schedules at a time, and it goes over the frontier again
+	 * if scheduling was asked for in the meantime.
+	 */
+	private void dispatch() {
+		if (dispatches.getAndIncrement() > 0) {
+			return;
+		}
+
+		int requests = 1;
+
+		do {
+			try {
+				fillStages();
+			}
+			catch (RuntimeException e) {
+				log.warn("Unable to schedule the waiting urls");
+				log.catching(Level.DEBUG, e);
+			}
+			finally {
+				// released even on a failure so later requests are not ignored forever
+				requests = dispatches.addAndGet(-requests);
+			}
+		} while (requests > 0);
+	}
+
+	/**
+	 * Goes over the frontier once for {@link #dispatch()}
+	 */
+	private void fillStages() {
+		while (processing.hasRoom() && fetching.reserve()) {
+			URL next;
+
+			try {
+				next = next();
+			}
+			catch (RuntimeException e) {
+				fetching.cancel();
+				throw e;
+			}
+
+			if (next == null) {
+				fetching.cancel();
+				break;
+			}
+
+			try {
+				schedule(next, 0);
+			}
+			catch (RuntimeException e) {
+				abandon(next, e);
+			}
+		}
+
+		long wait = frontier.delay();
+
+		if (wait <= 0) {
+			return;
+		}
+
+		synchronized (lock) {
+			long now = System.nanoTime();
+			long time = now + TimeUnit.MILLISECONDS.toNanos(wait);
+
+			// an earlier wake up will check again anyways
+			if (wakeup - now > 0 && time - wakeup >= 0) {
+				return;
+			}
+
+			wakeup = time;
+		}
+
+		CompletableFuture.delayedExecutor(wait, TimeUnit.MILLISECONDS).execute(this::dispatch);
 	}
 
 	/**
@@ -99,18 +706,109 @@ public class WebCrawler {
 	 * @param links the links to crawl
 	 */
 	private void crawlLinks(List<URL> links) {
-		synchronized (URLs) {
-			for (URL link : links) {
-				if (URLs.size() > maxLinks) {
-					break;
+		for (URL link : links) {
+			frontier.add(link);
+		}
+
+		dispatch();
+	}
+
+	/**
+	 * Cleans and parses the html of a page, passes the links found on the page to
+	 * the consumer, and adds the text of the page to the local index. The text and
+	 * links are extracted together in a single pass over the html.
+	 * 
+	 * @param url the url of the page
+	 * @param html the html of the page
+	 * @param local the local index to add to
+	 * @param stemmer the stemmer to use
+	 * @param links the consumer of the links found on the page
+	 *
+	 * @see HtmlTokenizer#extract(URL, String, StringBuilder, java.util.Collection)
+	 */
+	public static void processHtml(URL url, String html, InvertedIndex local, Stemmer stemmer, Consumer<List<URL>> links) {
+		StringBuilder text = new StringBuilder(html.length());
+		List<URL> found = new ArrayList<>();
+
+		HtmlTokenizer.extract(url, html, text, found);
+		links.accept(found);
+
+		InvertedIndexProcessor.processString(text.toString(), local, url.toString(), 0, stemmer);
+	}
+
+	/** Fetches a page in the fetch stage and passes it on to be indexed */
+	private class Fetch implements Runnable {
+		/** The url to fetch */
+		private final URL url;
+
+		/** The number of times the url was tried before */
+		private final int attempt;
+
+		/**
+		 * Creates a task to fetch a url
+		 * 
+		 * @param url the url to fetch
+		 * @param attempt the number of times the url was tried before
+		 */
+		public Fetch(URL url, int attempt) {
+			this.url = url;
+			this.attempt = attempt;
+		}
+
+		@Override
+		public void run() {
+			boolean passed = false;
+			boolean retrying = false;
+			long start = System.nanoTime();
+
+			try {
+				if (cache == null && maxPage > 0) {
+					passed = stream();
+					return;
+				}
+
+				FetchCache.Page page = HtmlFetcher.fetchPage(url, 3, cache != null ? cache.get(url) : null, pool);
+
+				if (page != null) {
+					processing.submit(new Task(url, index, page));
+					passed = true;
 				}
-				
-				if (!URLs.contains(link) && URLs.size() < maxLinks) {
-					URLs.add(link);
-					Task task = new Task(link, index);
-					queue.execute(task);
+			}
+			catch (IOException e) {
+				retrying = retry(url, attempt, e);
+			}
+			finally {
+				metrics.fetched(System.nanoTime() - start);
+
+				// a url waiting to be retried keeps its host busy
+				if (!retrying) {
+					frontier.fetched(url);
 				}
+
+				if (!passed && !retrying) {
+					finished(url);
+				}
+			}
+		}
+
+		/**
+		 * Fetches the page and parses its text into a local index as it is
+		 * downloaded, which is then passed on to be added to the index
+		 * 
+		 * @return true if the page was passed on
+		 * @throws IOException if the fetch failed in a way that may succeed later
+		 */
+		private boolean stream() throws IOException {
+			InvertedIndex local = new InvertedIndex();
+			PageIndexer indexer = new PageIndexer(url.toString(), local, new SnowballStemmer(ENGLISH), WebCrawler.this::crawlLinks);
+
+			if (!HtmlFetcher.streamPage(url, 3, pool, html -> HtmlTokenizer.tokenize(url, html, maxPage, indexer))) {
+				return false;
 			}
+
+			indexer.finish();
+			processing.submit(new Task(url, index, local));
+			return true;
 		}
 	}
 
@@ -128,34 +826,302 @@ public class WebCrawler {
 		/** The stemmer to use */
 		private final Stemmer stemmer;
 
+		/** The fetched page, or null if it was already parsed into the local index */
+		private final FetchCache.Page page;
+
 		/**
-		 * Creates a task to parse a url and add its contents to the inverted index
+		 * Creates a task to parse a fetched page and add its contents to the inverted index
 		 * 
-		 * @param url the url to parse and clean
+		 * @param url the url of the page
 		 * @param index the index to use
+		 * @param page the fetched page
 		 */
-		public Task(URL url, ThreadSafeInvertedIndex index) {
+		public Task(URL url, ThreadSafeInvertedIndex index, FetchCache.Page page) {
 			this.url = url;
 			this.index = index;
 			this.local = new InvertedIndex();
 			this.stemmer = new SnowballStemmer(ENGLISH);
+			this.page = page;
+		}
+
+		/**
+		 * Creates a task to add a page that was parsed as it was downloaded to the inverted index
+		 * 
+		 * @param url the url of the page
+		 * @param index the index to use
+		 * @param local the local index of the page
+		 */
+		public Task(URL url, ThreadSafeInvertedIndex index, InvertedIndex local) {
+			this.url = url;
+			this.index = index;
+			this.local = local;
+			this.stemmer = null;
+			this.page = null;
 		}
 
 		@Override
 		public void run() {
-			String html = HtmlFetcher.fetch(url, 3);
+			try {
+				if (page != null && cache != null) {
+					processCached(page);
+					return;
+				}
+
+				if (page != null) {
+					parse(page.getHtml(), WebCrawler.this::crawlLinks);
+				}
+
+				if (!isDuplicate()) {
+					merge();
+				}
+			}
+			finally {
+				finished(url);
+			}
+		}
+
+		/**
+		 * Cleans and parses html that was already fetched into the local index,
+		 * using the streaming tokenizer if it is enabled
+		 * 
+		 * @param html the html of the page
+		 * @param links the consumer of the links found on the page
+		 */
+		private void parse(String html, Consumer<List<URL>> links) {
+			long start = System.nanoTime();
+
+			if (maxPage <= 0) {
+				processHtml(url, html, local, stemmer, links);
+			}
+			else {
+				PageIndexer indexer = new PageIndexer(url.toString(), local, stemmer, links);
 
-			if (html == null) {
+				try {
+					HtmlTokenizer.tokenize(url, new StringReader(html), maxPage, indexer);
+				}
+				catch (IOException e) {
+					// a string reader does not throw
+					throw new UncheckedIOException(e);
+				}
+
+				indexer.finish();
+			}
+
+			metrics.parsed(System.nanoTime() - start);
+		}
+
+		/**
+		 * Adds the local index to the shared index, measuring how long the merge
+		 * waited for other threads and how long it took
+		 */
+		private void merge() {
+			long start = System.nanoTime();
+			long wait = index.addAllTimed(local);
+			metrics.merged(wait, System.nanoTime() - start - wait);
+		}
+
+		/**
+		 * Indexes a page fetched using the cache. An unchanged page is restored from
+		 * the links and index data stored with it instead of being parsed again, and
+		 * is skipped entirely if the index already contains it.
+		 * 
+		 * @param page the fetched page
+		 */
+		private void processCached(FetchCache.Page page) {
+			String location = url.toString();
+
+			if (!page.isChanged() && restore(page)) {
+				if (!index.hasCount(location) && !isDuplicate()) {
+					merge();
+				}
+
+				return;
+			}
+
+			List<URL> found = new ArrayList<>();
+
+			parse(page.getHtml(), links -> {
+				found.addAll(links);
+				crawlLinks(links);
+			});
+
+			// cached first, since the index shares the local data once it is added
+			try {
+				List<String> links = found.stream().map(URL::toString).toList();
+				cache.put(url, page.withContents(links, IncrementalIndexProcessor.encode(local)));
+			}
+			catch (IOException e) {
+				log.catching(Level.DEBUG, e);
+			}
+
+			// the older version of the page no longer counts as indexed text
+			if (duplicates != null) {
+				duplicates.remove(location);
+			}
+
+			// replaces an older version of the page if one was already indexed
+			if (isDuplicate()) {
+				index.removeLocation(location);
+			}
+			else {
+				long start = System.nanoTime();
+				index.replaceLocation(location, local);
+				metrics.replaced(System.nanoTime() - start);
+			}
+		}
+
+		/**
+		 * Checks whether the page duplicates a page that was already indexed
+		 * 
+		 * @return true if the page should not be indexed
+		 */
+		private boolean isDuplicate() {
+			String canonical = duplicates != null ? duplicates.check(url.toString(), local) : null;
+
+			if (canonical != null) {
+				log.debug("Skipped {} as a duplicate of {}.", url, canonical);
+				metrics.duplicate();
+			}
+
+			return canonical != null;
+		}
+
+		/**
+		 * Restores the local index of an unchanged page from the cache and crawls
+		 * the links stored with it
+		 * 
+		 * @param page the unchanged page
+		 * @return true if the page was restored, false if the cached data was unusable
+		 */
+		private boolean restore(FetchCache.Page page) {
+			List<URL> links = new ArrayList<>();
+
+			try {
+				for (String link : page.getLinks()) {
+					links.add(new URL(link));
+				}
+
+				IncrementalIndexProcessor.decode(page.getData(), local);
+			}
+			catch (IOException e) {
+				log.catching(Level.DEBUG, e);
+				local.removeLocation(url.toString());
+				return false;
+			}
+
+			crawlLinks(links);
+			return true;
+		}
+	}
+
+	/**
+	 * Splits the text of a page into words as the tokenizer passes it on and adds
+	 * them to a local index, giving the same words and positions as
+	 * {@link InvertedIndexProcessor#processString(String, InvertedIndex, String, int, Stemmer)}
+	 */
+	private static class PageIndexer implements HtmlTokenizer.Handler {
+		/** The location of the page */
+		private final String location;
+
+		/** The local index to add to */
+		private final InvertedIndex local;
+
+		/** The stemmer to use */
+		private final Stemmer stemmer;
+
+		/** The consumer of the links found on the page */
+		private final Consumer<List<URL>> links;
+
+		/** The text of the current word */
+		private final StringBuilder word;
+
+		/** The position of the last word added */
+		private int position;
+
+		/** Whether a word was added yet */
+		private boolean started;
+
+		/** Whether the text starts with a space that is not stripped before splitting */
+		private boolean leading;
+
+		/**
+		 * Initializes the indexer
+		 * 
+		 * @param location the location of the page
+		 * @param local the local index to add to
+		 * @param stemmer the stemmer to use
+		 * @param links the consumer of the links found on the page
+		 */
+		public PageIndexer(String location, InvertedIndex local, Stemmer stemmer, Consumer<List<URL>> links) {
+			this.location = location;
+			this.local = local;
+			this.stemmer = stemmer;
+			this.links = links;
+			this.word = new StringBuilder();
+			this.position = 0;
+			this.started = false;
+			this.leading = false;
+		}
+
+		@Override
+		public void text(char c) {
+			// the same characters as the split regular expression
+			if (!Character.isSpaceChar(c) && (c < '\t' || c > '\r') && c != '\u0085') {
+				word.append(c);
+				return;
+			}
+
+			addWord();
+
+			// String.strip() keeps spaces like &nbsp;, which then split off an empty word
+			if (!started && !Character.isWhitespace(c)) {
+				leading = true;
+			}
+		}
+
+		@Override
+		public void link(URL url) {
+			links.accept(List.of(url));
+		}
+
+		/**
+		 * Adds the last word of the page
+		 */
+		public void finish() {
+			addWord();
+		}
+
+		/**
+		 * Cleans, stems, and adds the current word, if any
+		 */
+		private void addWord() {
+			if (word.isEmpty()) {
 				return;
 			}
-			
-			html = HtmlCleaner.stripBlockElements(html);
-			crawlLinks(LinkFinder.listUrls(url, html));
 
-			html = HtmlCleaner.stripTags(html);
-			html = HtmlCleaner.stripEntities(html);
-			InvertedIndexProcessor.processString(html, local, url.toString(), 0, stemmer);
-			index.addAll(local);
+			String[] words = FileStemmer.parse(word.toString());
+			word.setLength(0);
+
+			for (String parsed : words) {
+				if (!started) {
+					started = true;
+
+					if (leading) {
+						add("");
+					}
+				}
+
+				add(parsed);
+			}
+		}
+
+		/**
+		 * Stems and adds a word at the next position
+		 * 
+		 * @param parsed the cleaned word
+		 */
+		private void add(String parsed) {
+			local.addData(stemmer.stem(parsed).toString(), location, ++position);
 		}
 	}
 }
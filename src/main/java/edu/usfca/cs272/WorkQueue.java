@@ -11,6 +11,12 @@ import org.apache.logging.log4j.Logger;
  * Brian Goetz. It is up to the user of this class to keep track of whether
  * there is any pending work remaining.
  *
+ * <p>
+ * The queue may optionally be created with a minimum and maximum number of
+ * worker threads. Additional workers are started when more tasks are waiting
+ * than there are idle workers, and extra workers exit after sitting idle for
+ * longer than the keep alive time.
+ *
  * @see <a href=
  *   "https://web.archive.org/web/20210126172022/https://www.ibm.com/developerworks/library/j-jtp0730/index.html">
  *   Java Theory and Practice: Thread Pools and Work Queues</a>
@@ -21,7 +27,7 @@ import org.apache.logging.log4j.Logger;
  */
 public class WorkQueue {
 	/** Workers that wait until work (or tasks) are available. */
-	private final Worker[] workers;
+	private final LinkedList<Worker> workers;
 
 	/** Queue of pending work (or tasks). */
 	private final LinkedList<Runnable> tasks;
@@ -32,9 +38,24 @@ public class WorkQueue {
 	/** The default number of worker threads to use when not specified. */
 	public static final int DEFAULT = 5;
 
+	/** The default time in milliseconds an extra worker may be idle before exiting. */
+	public static final long KEEP_ALIVE = 1000;
+
 	/** Number of threads doing work */
 	private int pending;
 
+	/** The minimum number of worker threads to keep running. */
+	private final int minimum;
+
+	/** The maximum number of worker threads to start. */
+	private final int maximum;
+
+	/** Time in milliseconds an extra worker may be idle before exiting. */
+	private final long keepAlive;
+
+	/** Number of workers waiting for work, guarded by the tasks lock. */
+	private int idle;
+
 	/** Logger used for this class. */
 	private static final Logger log = LogManager.getLogger();
 
@@ -53,18 +74,57 @@ public class WorkQueue {
 	 * @param threads number of worker threads; should be greater than 1
 	 */
 	public WorkQueue(int threads) {
+		this(threads, threads);
+	}
+
+	/**
+	 * Starts a work queue that grows and shrinks between the minimum and maximum
+	 * number of threads with the default keep alive time.
+	 *
+	 * @param minimum minimum number of worker threads; should be at least 1
+	 * @param maximum maximum number of worker threads
+	 *
+	 * @see #WorkQueue(int, int, long)
+	 */
+	public WorkQueue(int minimum, int maximum) {
+		this(minimum, maximum, KEEP_ALIVE);
+	}
+
+	/**
+	 * Starts a work queue that grows and shrinks between the minimum and maximum
+	 * number of threads. Only the minimum number of threads are started initially.
+	 *
+	 * @param minimum minimum number of worker threads; should be at least 1
+	 * @param maximum maximum number of worker threads
+	 * @param keepAlive time in milliseconds an extra worker may be idle before exiting
+	 */
+	public WorkQueue(int minimum, int maximum, long keepAlive) {
 		this.tasks = new LinkedList<Runnable>();
-		this.workers = new Worker[threads];
+		this.workers = new LinkedList<Worker>();
+		this.minimum = Math.max(1, minimum);
+		this.maximum = Math.max(this.minimum, maximum);
+		this.keepAlive = keepAlive > 0 ? keepAlive : KEEP_ALIVE;
 		this.shutdown = false;
 		this.pending = 0;
+		this.idle = 0;
 
 		// start the threads so they are waiting in the background
-		for (int i = 0; i < threads; i++) {
-			workers[i] = new Worker();
-			workers[i].start();
+		synchronized (tasks) {
+			for (int i = 0; i < this.minimum; i++) {
+				startWorker();
+			}
 		}
 	}
 
+	/**
+	 * Starts a new worker thread. Must be called while holding the tasks lock.
+	 */
+	private void startWorker() {
+		Worker worker = new Worker();
+		workers.add(worker);
+		worker.start();
+	}
+
 	/**
 	 * Adds a work (or task) request to the queue. A worker thread will process this
 	 * request when available.
@@ -75,6 +135,13 @@ public class WorkQueue {
 		incrementPending();
 		synchronized (tasks) {
 			tasks.addLast(task);
+
+			// grow if more work is waiting than there are workers free to take it
+			if (tasks.size() > idle && workers.size() < maximum) {
+				startWorker();
+				log.debug("Work queue grew to {} workers.", workers.size());
+			}
+
 			tasks.notifyAll();
 		}
 	}
@@ -118,7 +185,13 @@ public class WorkQueue {
 			finish();
 			shutdown();
 
-			for (Worker worker : workers) {
+			Worker[] remaining;
+
+			synchronized (tasks) {
+				remaining = workers.toArray(new Worker[0]);
+			}
+
+			for (Worker worker : remaining) {
 				worker.join();
 			}
 		}
@@ -148,7 +221,39 @@ public class WorkQueue {
 	 * @return number of worker threads
 	 */
 	public int size() {
-		return workers.length;
+		synchronized (tasks) {
+			return workers.size();
+		}
+	}
+
+	/**
+	 * Returns the minimum number of worker threads kept by the work queue.
+	 *
+	 * @return minimum number of worker threads
+	 */
+	public int minimum() {
+		return minimum;
+	}
+
+	/**
+	 * Returns the maximum number of worker threads used by the work queue.
+	 *
+	 * @return maximum number of worker threads
+	 */
+	public int maximum() {
+		return maximum;
+	}
+
+	/**
+	 * Determines whether an idle worker should exit, which happens if it has been
+	 * waiting longer than the keep alive time and there are more workers than the
+	 * minimum. Must be called while holding the tasks lock.
+	 *
+	 * @param waited time in milliseconds the worker has been waiting
+	 * @return {@code true} if the worker should exit
+	 */
+	private boolean shouldShrink(long waited) {
+		return waited >= keepAlive && tasks.isEmpty() && workers.size() > minimum;
 	}
 
 	/**
@@ -158,7 +263,7 @@ public class WorkQueue {
 	 * <p>
 	 * If a shutdown is detected, will exit instead of grabbing new work from the
 	 * queue. These threads will continue running in the background until a shutdown
-	 * is requested.
+	 * is requested, or until idle for too long if there are extra workers.
 	 */
 	private class Worker extends Thread {
 		/**
@@ -175,8 +280,22 @@ public class WorkQueue {
 			try {
 				while (true) {
 					synchronized (tasks) {
-						while (tasks.isEmpty() && !shutdown) {
-							tasks.wait();
+						long started = System.currentTimeMillis();
+						idle++;
+
+						try {
+							while (tasks.isEmpty() && !shutdown) {
+								tasks.wait(keepAlive);
+
+								if (shouldShrink(System.currentTimeMillis() - started)) {
+									workers.remove(this);
+									log.debug("Work queue shrank to {} workers.", workers.size());
+									return;
+								}
+							}
+						}
+						finally {
+							idle--;
 						}
 
 						// exit while for one of two reasons: